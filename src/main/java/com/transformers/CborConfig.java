@@ -0,0 +1,63 @@
+package com.transformers;
+
+import java.util.List;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.MessageSourceAccessor;
+import org.springframework.hateoas.core.DelegatingRelProvider;
+import org.springframework.hateoas.hal.CurieProvider;
+import org.springframework.hateoas.hal.Jackson2HalModule;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+// CBOR (application/cbor) as a compact alternative to JSON, for the
+// clients that ask for it in Accept or send it as Content-Type. The
+// documents are the same as the HAL+JSON ones, links included, only
+// encoded in binary. JSON stays the default.
+@Configuration
+public class CborConfig implements WebMvcConfigurer {
+    public static final String CBOR_VALUE = "application/cbor";
+    public static final MediaType CBOR = MediaType.valueOf(CBOR_VALUE);
+
+    private final ObjectMapper mapper;
+
+    // the spring boot settings of the JSON mapper, with the HAL module set
+    // up the same way as for the HAL converter of spring hateoas. The builder
+    // is shared with the JSON mapper, so it configures a mapper of our own
+    // rather than being given the CBOR factory.
+    public CborConfig(Jackson2ObjectMapperBuilder builder,
+	    DelegatingRelProvider relProvider,
+	    ObjectProvider<CurieProvider> curieProvider,
+	    @Qualifier("linkRelationMessageSource")
+	    MessageSourceAccessor messages) {
+	this.mapper = new ObjectMapper(new CBORFactory());
+	builder.configure(mapper);
+	mapper.registerModule(new Jackson2HalModule());
+	mapper.setHandlerInstantiator(
+		new Jackson2HalModule.HalHandlerInstantiator(relProvider,
+			curieProvider.getIfAvailable(), messages));
+    }
+
+    public ObjectMapper getObjectMapper() {
+	return mapper;
+    }
+
+    // in place of the plain CBOR converter spring mvc adds on its own, and
+    // after the other converters, so that a request that accepts anything
+    // still gets JSON (or text) from the endpoints without a produces
+    @Override
+    public void extendMessageConverters(
+	    List<HttpMessageConverter<?>> converters) {
+	converters.removeIf(
+		MappingJackson2CborHttpMessageConverter.class::isInstance);
+	converters.add(new MappingJackson2CborHttpMessageConverter(mapper));
+    }
+}
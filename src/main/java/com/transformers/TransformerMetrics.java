@@ -0,0 +1,56 @@
+package com.transformers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Times every call into the service, the repository and the resource
+// assembler. The timers are transformers.service, transformers.repository
+// and transformers.assembler, tagged with the method and the exception it
+// threw (or none); the http requests themselves are timed by spring boot
+// as http.server.requests.
+@Aspect
+@Component
+public class TransformerMetrics {
+    private final MeterRegistry registry;
+
+    public TransformerMetrics(MeterRegistry registry) {
+	this.registry = registry;
+    }
+
+    @Around("execution(public * com.transformers.services.TransformerService.*(..))")
+    public Object timeService(ProceedingJoinPoint call) throws Throwable {
+	return time("transformers.service", call);
+    }
+
+    @Around("execution(* com.transformers.repository.TransformerRepository+.*(..))")
+    public Object timeRepository(ProceedingJoinPoint call) throws Throwable {
+	return time("transformers.repository", call);
+    }
+
+    @Around("execution(* com.transformers.services.TransformerResourceAssembler.toResource(..))")
+    public Object timeAssembler(ProceedingJoinPoint call) throws Throwable {
+	return time("transformers.assembler", call);
+    }
+
+    private Object time(String name, ProceedingJoinPoint call)
+	    throws Throwable {
+	long start = System.nanoTime();
+	String exception = "none";
+	try {
+	    return call.proceed();
+	} catch (Throwable e) {
+	    exception = e.getClass().getSimpleName();
+	    throw e;
+	} finally {
+	    registry.timer(name, "method", call.getSignature().getName(),
+		    "exception", exception)
+		    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+    }
+}
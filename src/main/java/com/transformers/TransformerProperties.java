@@ -0,0 +1,140 @@
+package com.transformers;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import com.transformers.models.Transformer;
+
+import lombok.Data;
+
+// settings of the transformers api, bound from the transformers.* properties
+@Component
+@ConfigurationProperties(prefix = "transformers")
+@Data
+public class TransformerProperties {
+    private Cache cache = new Cache();
+    private Page page = new Page();
+    private Bulk bulk = new Bulk();
+    private BattleCache battleCache = new BattleCache();
+    private BattlePool battlePool = new BattlePool();
+    private Leaderboard leaderboard = new Leaderboard();
+    private BattleHistory battleHistory = new BattleHistory();
+    private SpecialRoles specialRoles = new SpecialRoles();
+    private BattleRules battleRules = new BattleRules();
+    private Simulation simulation = new Simulation();
+    private BattleStream battleStream = new BattleStream();
+
+    @Data
+    public static class Cache {
+	// number of transformers kept by the GET /transformers/{id} cache
+	private long maximumSize = 10_000;
+	// how long a cached transformer is served before it is loaded again
+	private Duration ttl = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class Page {
+	// page size of GET /transformers when no limit is given
+	private int defaultLimit = 100;
+	// largest page size a client can ask for
+	private int maxLimit = 1000;
+    }
+
+    @Data
+    public static class Bulk {
+	// rows of POST /transformers/bulk validated and saved per transaction,
+	// best kept equal to spring.jpa.properties.hibernate.jdbc.batch_size
+	private int chunkSize = 1000;
+	// failed rows listed in the response of POST /transformers/bulk, the
+	// others are only counted
+	private int maxErrors = 1000;
+    }
+
+    @Data
+    public static class BattleCache {
+	// memory the memoized battle results may take, as estimated from the
+	// size of each result and of the rounds it keeps for the history
+	private DataSize maximumWeight = DataSize.ofMegabytes(64);
+    }
+
+    @Data
+    public static class BattlePool {
+	// threads the battle endpoints run on
+	private int threads = Runtime.getRuntime().availableProcessors();
+	// battles that can wait for a thread before new ones get a 429
+	private int queueCapacity = 100;
+	// sent back in the Retry-After header of a 429
+	private Duration retryAfter = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Leaderboard {
+	// transformers returned by GET /transformers/top when no k is given
+	private int defaultK = 10;
+	// transformers kept per leaderboard, the largest k a client can ask
+	// for
+	private int size = 100;
+    }
+
+    @Data
+    public static class BattleHistory {
+	// false fights the battles without keeping them or their rounds
+	private boolean enabled = true;
+	// memory the battles waiting to be written may take, estimated from
+	// their rounds, participants and survivors. Once it is full new
+	// battles are not kept.
+	private DataSize queueWeight = DataSize.ofMegabytes(64);
+	// battles written per batch of inserts
+	private int batchSize = 1000;
+	// longest time a battle waits for its batch to fill up
+	private Duration flushInterval = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class SpecialRoles {
+	// the name that makes a transformer of each type win every fight,
+	// checked when the transformer is saved
+	private Map<Transformer.TYPE, String> names = new EnumMap<>(
+		Transformer.TYPE.class);
+
+	public SpecialRoles() {
+	    names.put(Transformer.TYPE.AUTOBOT, "Optimus Prime");
+	    names.put(Transformer.TYPE.DECEPTICON, "Predaking");
+	}
+    }
+
+    // the margins by which a fighter has to beat the other one in an
+    // attribute to win the fight, also sent to PUT /battles/rules. A margin
+    // of 10 turns the rule of its attribute off.
+    @Data
+    public static class BattleRules {
+	private @Min(1) @Max(10) int courage = 4;
+	private @Min(1) @Max(10) int strength = 3;
+	private @Min(1) @Max(10) int skill = 3;
+    }
+
+    @Data
+    public static class Simulation {
+	// battles simulated by POST /getSimulationResults when no number is
+	// given
+	private int defaultSimulations = 10_000;
+	// most battles a client can ask to simulate
+	private int maxSimulations = 1_000_000;
+    }
+
+    @Data
+    public static class BattleStream {
+	// rounds fought between two events of a streamed battle
+	private int chunkRounds = 1000;
+	// longest time a streamed battle keeps its connection open
+	private Duration timeout = Duration.ofMinutes(10);
+    }
+}
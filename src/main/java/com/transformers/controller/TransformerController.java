@@ -1,78 +1,239 @@
 package com.transformers.controller;
 
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
-
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
+import org.springframework.data.domain.Slice;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
 import org.springframework.hateoas.Resource;
 import org.springframework.hateoas.Resources;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.transformers.CborConfig;
+import com.transformers.TransformerProperties;
+import com.transformers.exceptions.TransformerVersionMismatchException;
+import com.transformers.models.Battle;
 import com.transformers.models.Transformer;
+import com.transformers.services.BattleExecutor;
+import com.transformers.services.BattleHistory;
+import com.transformers.services.BattleResourceAssembler;
+import com.transformers.services.Lineup;
+import com.transformers.services.TransformerExporter;
+import com.transformers.services.TransformerImporter;
 import com.transformers.services.TransformerResourceAssembler;
+import com.transformers.services.Tournament;
 import com.transformers.services.TransformerService;
 
 @RestController
 public class TransformerController {
     private final TransformerService service;
     private final TransformerResourceAssembler assembler;
+    private final TransformerExporter exporter;
+    private final TransformerImporter importer;
+    private final BattleExecutor battles;
+    private final BattleHistory history;
+    private final BattleResourceAssembler battleAssembler;
+    private final TransformerProperties properties;
 
     public TransformerController(TransformerService service,
-	    TransformerResourceAssembler assembler) {
+	    TransformerResourceAssembler assembler,
+	    TransformerExporter exporter, TransformerImporter importer,
+	    BattleExecutor battles, BattleHistory history,
+	    BattleResourceAssembler battleAssembler,
+	    TransformerProperties properties) {
 	this.service = service;
 	this.assembler = assembler;
+	this.exporter = exporter;
+	this.importer = importer;
+	this.battles = battles;
+	this.history = history;
+	this.battleAssembler = battleAssembler;
+	this.properties = properties;
     }
 
-    // get all the saved transformers
+    // get the saved transformers one page at a time, ordered by id. after is
+    // the last id of the previous page and the next link of every page points
+    // to the following one. Pass unpaged=true to get all the saved
+    // transformers at once. fields (e.g. fields=id,name,rank) keeps only the
+    // given fields of every transformer and leaves out its links.
+    // The ETag is the roster version along with the query and the
+    // representation (see representationETag): a client that sends it back in
+    // If-None-Match gets 304 until a transformer is saved or deleted.
     @GetMapping(value = "/transformers", produces = {
-	    MediaType.APPLICATION_JSON_VALUE })
-    public Resources<Resource<Transformer>> getAllTransformers() {
-	List<Resource<Transformer>> transformers = service.getAllTransformers()
-		.stream().map(assembler::toResource)
-		.collect(Collectors.toList());
-
-	return new Resources<>(transformers, linkTo(
-		methodOn(TransformerController.class).getAllTransformers())
-			.withSelfRel());
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public Resources<?> getAllTransformers(
+	    @RequestParam(required = false) Integer after,
+	    @RequestParam(required = false) Integer limit,
+	    @RequestParam(required = false) Transformer.TYPE type,
+	    @RequestParam(required = false) Boolean unpaged,
+	    @RequestParam(required = false) List<String> fields,
+	    WebRequest request, HttpServletResponse response) {
+	// the same url answers with JSON or CBOR
+	response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+	// read before the query, a change committed in between gives a stale
+	// ETag with fresh content rather than the other way round
+	if (request.checkNotModified(
+		representationETag(service.getRosterVersion(), request))) {
+	    return null;
+	}
+	if (!Boolean.TRUE.equals(unpaged)) {
+	    Slice<Transformer> page = service.getTransformersAfter(after, limit,
+		    type);
+	    return fields == null ? assembler.toPage(page, after, type)
+		    : assembler.toProjectedPage(page, after, type, fields);
+	}
+	List<Transformer> transformers = service.getAllTransformers(type);
+	return fields == null ? assembler.toUnpaged(transformers, type)
+		: assembler.toProjectedUnpaged(transformers, type, fields);
     }
 
     // save a new transformer with all the data in the post request body
     @PostMapping(value = "/transformers", produces = {
-	    MediaType.APPLICATION_JSON_VALUE })
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
     public Resource<Transformer> saveTransformer(
 	    @RequestBody @Valid Transformer transformer) {
 	return assembler.toResource(service.createTransformer(transformer));
     }
 
-    // get info for single transformer based on id
+    // export every saved transformer as newline delimited JSON, one
+    // transformer per line. The rows are streamed to the client while they
+    // are read from the database.
+    @GetMapping(value = "/transformers/export", produces = {
+	    TransformerExporter.NDJSON_VALUE })
+    public ResponseEntity<StreamingResponseBody> exportTransformers() {
+	return ResponseEntity.ok()
+		.contentType(MediaType.parseMediaType(
+			TransformerExporter.NDJSON_VALUE))
+		.body(exporter::export);
+    }
+
+    // save many transformers at once, sent as a json array, as newline
+    // delimited JSON or as CBOR. Invalid rows are skipped and reported in
+    // the response with their position in the body, the valid ones are
+    // saved.
+    @PostMapping(value = "/transformers/bulk", consumes = {
+	    MediaType.APPLICATION_JSON_VALUE, TransformerExporter.NDJSON_VALUE,
+	    CborConfig.CBOR_VALUE }, produces = {
+		    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public HashMap<String, Object> importTransformers(InputStream body,
+	    @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType)
+	    throws IOException {
+	return importer.importAll(body, contentType);
+    }
+
+    // the transformers whose attributes are within the given ranges, one
+    // page at a time like GET /transformers. Every other query parameter is
+    // the range of the attribute it is named after, e.g. skill=8.. and
+    // rank=..3 for a skill of at least 8 and a rank of at most 3.
+    @GetMapping(value = "/transformers/search", produces = {
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public Resources<Resource<Transformer>> searchTransformers(
+	    @RequestParam(required = false) Integer after,
+	    @RequestParam(required = false) Integer limit,
+	    @RequestParam(required = false) Transformer.TYPE type,
+	    @RequestParam Map<String, String> params) {
+	Map<String, String> ranges = new LinkedHashMap<>(params);
+	ranges.keySet().removeAll(Arrays.asList("after", "limit", "type"));
+	Slice<Transformer> page = service.searchTransformers(after, limit,
+		type, ranges);
+	return assembler.toSearchPage(page, after, type, ranges);
+    }
+
+    // the k strongest transformers by overall rating, best first. type keeps
+    // only the AUTOBOT or DECEPTICON ones.
+    @GetMapping(value = "/transformers/top", produces = {
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public Resources<Resource<Transformer>> getTopTransformers(
+	    @RequestParam(required = false) Integer k,
+	    @RequestParam(required = false) Transformer.TYPE type) {
+	return assembler.toTop(service.getTopTransformers(k, type), k, type);
+    }
+
+    // get info for single transformer based on id. The ETag holds its
+    // version and the representation (see representationETag), to be sent
+    // back in the If-Match header of a PUT or in the If-None-Match header of
+    // the next GET, which is then answered with 304 from the roster snapshot
+    // without loading the transformer.
     @GetMapping(value = "/transformers/{id}", produces = {
-	    MediaType.APPLICATION_JSON_VALUE })
-    public Resource<Transformer> findTransformerById(@PathVariable Integer id) {
-	Transformer transformer = service.findById(id);
-	System.out.println(transformer);
-	return assembler.toResource(service.findById(id));
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public ResponseEntity<Resource<Transformer>> findTransformerById(
+	    @PathVariable Integer id, WebRequest request,
+	    HttpServletResponse response) {
+	// the same url answers with JSON or CBOR, a 304 included
+	response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+	int version = service.getVersion(id);
+	if (version >= 0 && request.checkNotModified(
+		representationETag(String.valueOf(version), request))) {
+	    return null;
+	}
+	return withETag(assembler.toResource(service.findById(id)), request);
+    }
+
+    // hit, miss and eviction counts of the cache behind GET
+    // /transformers/{id}
+    @GetMapping(value = "/transformers/cache/stats", produces = {
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public Resource<HashMap<String, Long>> getCacheStats() {
+	CacheStats stats = service.getCacheStats();
+	HashMap<String, Long> res = new HashMap<>();
+	res.put("HitCount", stats.hitCount());
+	res.put("MissCount", stats.missCount());
+	res.put("EvictionCount", stats.evictionCount());
+	res.put("Size", service.getCacheSize());
+	return new Resource<>(res);
     }
 
     // update transformer info based on id
-    // creates a new transformer if id does not exist
+    // creates a new transformer if id does not exist.
+    // With an If-Match header the transformer is only updated if its ETag
+    // still matches, in a single statement, and 412 is returned otherwise
     @PutMapping(value = "/transformers/{id}", produces = {
-	    MediaType.APPLICATION_JSON_VALUE })
-    public Resource<Transformer> updateOrCreateTransformer(
-	    @RequestBody @Valid Transformer newTransformer, @PathVariable Integer id) {
-	newTransformer = service.updateOrCreateTransformer(newTransformer, id);
-	return assembler.toResource(newTransformer);
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public ResponseEntity<Resource<Transformer>> updateOrCreateTransformer(
+	    @RequestBody @Valid Transformer newTransformer,
+	    @PathVariable Integer id,
+	    @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+	    String ifMatch, WebRequest request) {
+	if (ifMatch == null) {
+	    newTransformer = service.updateOrCreateTransformer(newTransformer,
+		    id);
+	} else {
+	    newTransformer = service.updateTransformerIfVersion(newTransformer,
+		    id, version(ifMatch, id));
+	}
+	return withETag(assembler.toResource(newTransformer), request);
     }
 
     // delete a transformer by id
@@ -88,14 +249,238 @@ public class TransformerController {
 
     // get battle details of a fight between transformers as per the passed in
     // ids. The response will be in json form containing keys like : Survivors,
-    // NumberOfBattles and Winner.
+    // NumberOfBattles and Winner. The battle endpoints run on the
+    // BattleExecutor and answer 429 when too many battles are waiting, and
+    // 503 when the battle outlasts spring.mvc.async.request-timeout (see
+    // whenFought).
     @PostMapping(value = "/getBattleResult", produces = {
-	    MediaType.APPLICATION_JSON_VALUE })
-    public Resource<HashMap<String, String>> getBattleResult(
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public DeferredResult<Resource<HashMap<String, String>>> getBattleResult(
 	    @RequestBody List<Integer> paramIds) {
 //	ArrayList<Integer> ids = new ArrayList<>();
 //	Collections.addAll(ids, paramIds);
-	HashMap<String, String> res = service.getBattleResult(paramIds);
-	return new Resource<>(res);
+	return whenFought(battles.submit(() -> {
+	    HashMap<String, String> res = service.getBattleResult(paramIds);
+	    return new Resource<>(res);
+	}));
+    }
+
+    // the battle of getBattleResult as server-sent events, for battles too
+    // large to wait for: a "rounds" event after every chunk of rounds (see
+    // transformers.battle-stream) with their outcomes and the score so far,
+    // then a "result" event with the same keys as getBattleResult. A client
+    // cancels the battle by closing the connection, it is not fought past
+    // the chunk going on. A battle turned away by a full queue answers 429
+    // before the stream is opened.
+    @PostMapping(value = "/getBattleResult/stream", produces = {
+	    MediaType.TEXT_EVENT_STREAM_VALUE })
+    public SseEmitter streamBattleResult(@RequestBody List<Integer> paramIds) {
+	SseEmitter emitter = new SseEmitter(
+		properties.getBattleStream().getTimeout().toMillis());
+	AtomicBoolean open = new AtomicBoolean(true);
+	CompletableFuture<Void> battle = battles.submit(() -> {
+	    HashMap<String, String> res = service.streamBattleResult(paramIds,
+		    progress -> open.get()
+			    && send(emitter, "rounds", progress));
+	    if (res != null && send(emitter, "result", res)) {
+		emitter.complete();
+	    }
+	    return null;
+	});
+	battle.whenComplete((none, e) -> {
+	    if (e != null && !battle.isCancelled()) {
+		emitter.completeWithError(cause(e));
+	    }
+	});
+	// once the stream is over a battle still waiting in the queue is
+	// never fought, and one going on stops after its chunk
+	Runnable cancel = () -> {
+	    open.set(false);
+	    battle.cancel(false);
+	};
+	emitter.onCompletion(cancel);
+	emitter.onError(e -> cancel.run());
+	emitter.onTimeout(() -> {
+	    cancel.run();
+	    emitter.complete();
+	});
+	return emitter;
+    }
+
+    // get battle details for many fights in one request, one list of ids per
+    // fight. The response contains one result per list, in the same order as
+    // the lists in the request body.
+    @PostMapping(value = "/getBattleResults", produces = {
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public DeferredResult<List<HashMap<String, String>>> getBattleResults(
+	    @RequestBody List<List<Integer>> paramIds) {
+	return whenFought(
+		battles.submit(() -> service.getBattleResults(paramIds)));
+    }
+
+    // battles between many named teams, each team given by the ids of its
+    // transformers. mode is ROUND_ROBIN (the default), where every team
+    // fights every other team, or SINGLE_ELIMINATION, where the teams are
+    // paired in the order of the request body and the winners go on to the
+    // next round. The response holds the standings and the result of every
+    // match.
+    @PostMapping(value = "/getTournamentResults", produces = {
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public DeferredResult<HashMap<String, Object>> getTournamentResults(
+	    @RequestBody LinkedHashMap<String, List<Integer>> teams,
+	    @RequestParam(required = false) Tournament.MODE mode) {
+	return whenFought(battles
+		.submit(() -> service.getTournamentResults(teams, mode)));
+    }
+
+    // the odds of a lineup, from simulations (see
+    // transformers.simulation) of its battle with sample more transformers
+    // of the given type (of any type without one) drawn at random from the
+    // roster. The response holds the probability of every outcome with its
+    // 95% confidence interval, and the seed that repeats the simulations.
+    @PostMapping(value = "/getSimulationResults", produces = {
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public DeferredResult<HashMap<String, Object>> getSimulationResults(
+	    @RequestBody List<Integer> paramIds,
+	    @RequestParam(required = false) Transformer.TYPE type,
+	    @RequestParam(required = false) Integer sample,
+	    @RequestParam(required = false) Integer simulations,
+	    @RequestParam(required = false) Long seed) {
+	return whenFought(battles.submit(() -> service.getSimulationResults(
+		paramIds, type, sample, simulations, seed)));
+    }
+
+    // the order the transformers of "team" should fight in to win the most
+    // fights (objective WINS, the default) or the most more fights than
+    // they lose (MARGIN) against the ones of "opponent", who fight in rank
+    // order. The team takes the side given (AUTOBOT by default), whatever
+    // the types of its members. The response holds the ids of the lineup
+    // and of the opponents it meets, the fights won, lost and tied and the
+    // result of the battle fought in that order.
+    @PostMapping(value = "/getBestLineup", produces = {
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public DeferredResult<HashMap<String, Object>> getBestLineup(
+	    @RequestBody Map<String, List<Integer>> teams,
+	    @RequestParam(required = false) Transformer.TYPE side,
+	    @RequestParam(required = false) Lineup.OBJECTIVE objective) {
+	return whenFought(battles.submit(() -> service.getBestLineup(
+		teams.get("team"), teams.get("opponent"), side, objective)));
+    }
+
+    // a battle from the history, with its participants, the outcome of
+    // every round, the winner and the survivors
+    @GetMapping("/battles/{id}")
+    public Resource<Battle> findBattleById(@PathVariable Long id) {
+	return battleAssembler.toResource(history.findById(id));
+    }
+
+    // the battles fought since the given instant (all of them without it),
+    // oldest first and paged like GET /transformers. Battles are written in
+    // the background, the last ones may take a moment to show up.
+    @GetMapping("/battles")
+    public Resources<Resource<Battle>> getBattles(
+	    @RequestParam(required = false)
+	    @DateTimeFormat(iso = ISO.DATE_TIME) Instant since,
+	    @RequestParam(required = false) Long after,
+	    @RequestParam(required = false) Integer limit) {
+	return battleAssembler.toPage(history.getBattlesSince(since, after,
+		limit), since, after);
+    }
+
+    // the margins the battles are fought by, see transformers.battle-rules
+    @GetMapping(value = "/battles/rules", produces = {
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public TransformerProperties.BattleRules getBattleRules() {
+	return service.getBattleRules();
+    }
+
+    // replaces the margins while the api runs, the battles that start after
+    // the response are fought by the new ones
+    @PutMapping(value = "/battles/rules", produces = {
+	    MediaType.APPLICATION_JSON_VALUE, CborConfig.CBOR_VALUE })
+    public TransformerProperties.BattleRules updateBattleRules(
+	    @RequestBody @Valid TransformerProperties.BattleRules rules) {
+	return service.updateBattleRules(rules);
+    }
+
+    // false once the client is gone, a failed send completes the emitter
+    private static boolean send(SseEmitter emitter, String name,
+	    Object data) {
+	try {
+	    emitter.send(SseEmitter.event().name(name).data(data,
+		    MediaType.APPLICATION_JSON));
+	    return true;
+	} catch (IOException | IllegalStateException e) {
+	    return false;
+	}
+    }
+
+    // the result of the battle for the async request. When the request
+    // times out the battle is cancelled: one still waiting in the queue is
+    // never fought, so a client that gave up doesn't keep the pool busy.
+    private static <T> DeferredResult<T> whenFought(
+	    CompletableFuture<T> battle) {
+	DeferredResult<T> result = new DeferredResult<>();
+	result.onTimeout(() -> battle.cancel(false));
+	result.onError(e -> battle.cancel(false));
+	battle.whenComplete((value, e) -> {
+	    if (e == null) {
+		result.setResult(value);
+	    } else if (!battle.isCancelled()) {
+		// a cancelled battle leaves the result to the timeout
+		result.setErrorResult(cause(e));
+	    }
+	});
+	return result;
+    }
+
+    private static Throwable cause(Throwable e) {
+	return e instanceof CompletionException && e.getCause() != null
+		? e.getCause() : e;
+    }
+
+    // the roster or transformer version followed by a digest of the query
+    // parameters and of the Accept header, which picks JSON or CBOR. Every
+    // page, filter and representation gets a tag of its own, so none is
+    // ever answered with the body of another.
+    private static String representationETag(String version,
+	    WebRequest request) {
+	StringBuilder query = new StringBuilder();
+	new TreeMap<>(request.getParameterMap()).forEach(
+		(name, values) -> query.append(name).append('=')
+			.append(String.join(",", values)).append('&'));
+	query.append(request.getHeader(HttpHeaders.ACCEPT));
+	return version + "-" + DigestUtils.md5DigestAsHex(
+		query.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ResponseEntity<Resource<Transformer>> withETag(
+	    Resource<Transformer> resource, WebRequest request) {
+	Integer version = resource.getContent().getVersion();
+	ResponseEntity.BodyBuilder ok = ResponseEntity.ok()
+		.varyBy(HttpHeaders.ACCEPT);
+	if (version != null) {
+	    ok.eTag(representationETag(String.valueOf(version), request));
+	}
+	return ok.body(resource);
+    }
+
+    // the version in an If-Match header sent back from an ETag, the number
+    // before the representation digest, so a tag of any representation
+    // matches. Weak tags, lists and * can't be matched against a single
+    // version.
+    private static int version(String ifMatch, Integer id) {
+	String tag = ifMatch.trim();
+	if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+	    tag = tag.substring(1, tag.length() - 1);
+	    int dash = tag.indexOf('-');
+	    try {
+		return Integer
+			.parseInt(dash < 0 ? tag : tag.substring(0, dash));
+	    } catch (NumberFormatException e) {
+		// not one of ours
+	    }
+	}
+	throw new TransformerVersionMismatchException(id);
     }
 }
@@ -0,0 +1,8 @@
+package com.transformers.exceptions;
+
+@SuppressWarnings("serial")
+public class BattleNotFoundException extends RuntimeException {
+    public BattleNotFoundException(Long id) {
+	super("Could not find battle with ID " + id);
+    }
+}
@@ -0,0 +1,19 @@
+package com.transformers.exceptions;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+@ControllerAdvice
+class BattleQueueFullAdvice {
+
+    @ExceptionHandler(BattleQueueFullException.class)
+    ResponseEntity<String> battleQueueFullHandler(BattleQueueFullException ex) {
+	return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+		.header(HttpHeaders.RETRY_AFTER,
+			String.valueOf(ex.getRetryAfterSeconds()))
+		.body(ex.getMessage());
+    }
+}
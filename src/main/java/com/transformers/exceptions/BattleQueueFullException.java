@@ -0,0 +1,29 @@
+package com.transformers.exceptions;
+
+import java.time.Duration;
+
+@SuppressWarnings("serial")
+public class BattleQueueFullException extends RuntimeException {
+    private final Duration retryAfter;
+
+    public BattleQueueFullException(Duration retryAfter) {
+	super("Too many battles waiting, retry in "
+		+ retryAfterSeconds(retryAfter) + " seconds");
+	this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+	return retryAfter;
+    }
+
+    // the delay in whole seconds for the Retry-After header, rounded up so
+    // that a delay under a second never tells the client to retry at once
+    public long getRetryAfterSeconds() {
+	return retryAfterSeconds(retryAfter);
+    }
+
+    private static long retryAfterSeconds(Duration retryAfter) {
+	long seconds = retryAfter.getSeconds();
+	return Math.max(1, retryAfter.getNano() > 0 ? seconds + 1 : seconds);
+    }
+}
@@ -0,0 +1,9 @@
+package com.transformers.exceptions;
+
+@SuppressWarnings("serial")
+public class InvalidRangeException extends RuntimeException {
+    public InvalidRangeException(String attribute, String range) {
+	super("Invalid range " + range + " for " + attribute
+		+ ", expected min..max, min.., ..max or a single value");
+    }
+}
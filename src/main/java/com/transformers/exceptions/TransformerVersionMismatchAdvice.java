@@ -0,0 +1,30 @@
+package com.transformers.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+class TransformerVersionMismatchAdvice {
+
+    @ResponseBody
+    @ExceptionHandler(TransformerVersionMismatchException.class)
+    @ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+    String versionMismatchHandler(TransformerVersionMismatchException ex) {
+	return ex.getMessage();
+    }
+
+    // two updates without If-Match raced and the version check of the
+    // second one failed on save
+    @ResponseBody
+    @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+    @ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+    String optimisticLockingFailureHandler(
+	    ObjectOptimisticLockingFailureException ex) {
+	return "Transformer with ID " + ex.getIdentifier()
+		+ " was changed in the meantime";
+    }
+}
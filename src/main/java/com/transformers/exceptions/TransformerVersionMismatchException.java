@@ -0,0 +1,9 @@
+package com.transformers.exceptions;
+
+@SuppressWarnings("serial")
+public class TransformerVersionMismatchException extends RuntimeException {
+    public TransformerVersionMismatchException(Integer id) {
+	super("Transformer with ID " + id
+		+ " does not exist or was changed in the meantime");
+    }
+}
@@ -0,0 +1,10 @@
+package com.transformers.exceptions;
+
+import java.util.Collection;
+
+@SuppressWarnings("serial")
+public class UnknownFieldException extends RuntimeException {
+    public UnknownFieldException(String field, Collection<String> fields) {
+	super("Unknown field " + field + ", the fields are " + fields);
+    }
+}
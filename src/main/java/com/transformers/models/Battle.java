@@ -0,0 +1,68 @@
+package com.transformers.models;
+
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// A battle fought through /getBattleResult or /getBattleResults, as kept in
+// the battle history
+@Entity
+@Table(indexes = @Index(name = "battle_fought_at_idx",
+	columnList = "fought_at"))
+@Data
+@NoArgsConstructor
+public class Battle {
+    // outcome of a round in rounds
+    public static final char AUTOBOTS_WON = 'A';
+    public static final char DECEPTICONS_WON = 'D';
+    public static final char TIE = 'T';
+    public static final char DESTROYED = 'X';
+
+    // written in batches, like the transformers the ids come from a pooled
+    // sequence
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE,
+	    generator = "battle_seq")
+    @SequenceGenerator(name = "battle_seq", sequenceName = "battle_seq",
+	    allocationSize = 50)
+    @Setter(AccessLevel.NONE)
+    private long id;
+    @Column(name = "fought_at")
+    private Instant foughtAt;
+    // ids of the saved transformers that took part, comma separated
+    @Lob
+    private String participants;
+    // outcome of every round in the order they were fought, one of the
+    // characters above per round
+    @Lob
+    private String rounds;
+    // "Winning team (DECEPTICONS) : " and a name of up to 255 characters
+    @Column(length = 512)
+    private String winner;
+    @Lob
+    private String survivors;
+    private int numberOfBattles;
+
+    public Battle(Instant foughtAt, String participants, String rounds,
+	    String winner, String survivors, int numberOfBattles) {
+	this.foughtAt = foughtAt;
+	this.participants = participants;
+	this.rounds = rounds;
+	this.winner = winner;
+	this.survivors = survivors;
+	this.numberOfBattles = numberOfBattles;
+    }
+}
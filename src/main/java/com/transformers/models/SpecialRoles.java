@@ -0,0 +1,34 @@
+package com.transformers.models;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+import org.springframework.stereotype.Component;
+
+import com.transformers.TransformerProperties;
+
+// Entity listener of Transformer that marks the transformers whose name is
+// the special name of their type (transformers.special-roles.names) every
+// time they are saved. The battles then read the flag instead of
+// comparing names. Hibernate gets the listener from spring.
+@Component
+public class SpecialRoles {
+    private final Map<Transformer.TYPE, String> names;
+
+    public SpecialRoles(TransformerProperties properties) {
+	this.names = new EnumMap<>(Transformer.TYPE.class);
+	names.putAll(properties.getSpecialRoles().getNames());
+    }
+
+    @PrePersist
+    @PreUpdate
+    public void resolve(Transformer transformer) {
+	String name = transformer.getType() == null ? null
+		: names.get(transformer.getType());
+	transformer.setSpecial(name != null
+		&& name.equals(transformer.getName()));
+    }
+}
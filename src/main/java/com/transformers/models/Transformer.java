@@ -1,24 +1,41 @@
 package com.transformers.models;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.Version;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.Size;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
 
 @Entity
+@Table(indexes = {
+	@Index(name = "transformer_rating_idx",
+		columnList = "overall_rating, id"),
+	@Index(name = "transformer_type_rating_idx",
+		columnList = "type, overall_rating, id"),
+	@Index(name = "transformer_type_rank_idx",
+		columnList = "type, rank, id") })
+@EntityListeners(SpecialRoles.class)
 @Data
 @ToString
-@AllArgsConstructor
 @NoArgsConstructor
 public class Transformer {
 
@@ -26,7 +43,16 @@ public class Transformer {
 	AUTOBOT, DECEPTICON
     }
 
-    private @Id @GeneratedValue @Setter(AccessLevel.NONE) int id;
+    // ids come from a sequence that hands out blocks of 50 (pooled
+    // optimizer), so inserts can be batched and need one sequence call per
+    // 50 rows
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE,
+	    generator = "transformer_seq")
+    @SequenceGenerator(name = "transformer_seq",
+	    sequenceName = "transformer_seq", allocationSize = 50)
+    @Setter(AccessLevel.NONE)
+    private int id;
     private @Size(min = 1) @NotBlank String name;
     private @Min(1) @Max(10) int strength;
     private @Min(1) @Max(10) int intelligence;
@@ -37,9 +63,46 @@ public class Transformer {
     private @Min(1) @Max(10) int firepower;
     private @Min(1) @Max(10) int skill;
     private TYPE type;
+    // incremented by every update, null until the transformer is saved.
+    // Sent to the clients but never read from them, the version a client
+    // updates comes from If-Match
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Integer version;
+    // getOverallRating as of the last save, stored so that the strongest
+    // transformers can be read from an index
+    @Column(name = "overall_rating")
+    @Setter(AccessLevel.NONE)
+    private int overallRating;
+    // whether the special rule of its team applies to the transformer, set
+    // from its name and type when it is saved (see SpecialRoles)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private boolean special;
+
+    public Transformer(int id, String name, int strength, int intelligence,
+	    int speed, int endurance, int rank, int courage, int firepower,
+	    int skill, TYPE type) {
+	this.id = id;
+	this.name = name;
+	this.strength = strength;
+	this.intelligence = intelligence;
+	this.speed = speed;
+	this.endurance = endurance;
+	this.rank = rank;
+	this.courage = courage;
+	this.firepower = firepower;
+	this.skill = skill;
+	this.type = type;
+    }
 
     public int getOverallRating() {
 	return this.strength + this.intelligence + this.speed + this.endurance
 		+ this.firepower;
     }
+
+    @PrePersist
+    @PreUpdate
+    void storeOverallRating() {
+	this.overallRating = getOverallRating();
+    }
 }
@@ -0,0 +1,17 @@
+package com.transformers.repository;
+
+import java.time.Instant;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.transformers.models.Battle;
+
+public interface BattleRepository extends JpaRepository<Battle, Long> {
+
+    // keyset pagination of the battles fought since the given time, the page
+    // starts right after the given id
+    Slice<Battle> findByFoughtAtGreaterThanEqualAndIdGreaterThan(
+	    Instant since, long id, Pageable pageable);
+}
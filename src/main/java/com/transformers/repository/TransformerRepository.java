@@ -1,10 +1,74 @@
 package com.transformers.repository;
 
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.transformers.models.Transformer;
 
 public interface TransformerRepository
-	extends JpaRepository<Transformer, Integer> {
+	extends JpaRepository<Transformer, Integer>, TransformerSearch {
+
+    // rows the driver fetches per round trip while streaming
+    String STREAM_FETCH_SIZE = "500";
+
+    // keyset pagination, the page starts right after the given id
+    Slice<Transformer> findByIdGreaterThan(int id, Pageable pageable);
+
+    Slice<Transformer> findByTypeAndIdGreaterThan(Transformer.TYPE type,
+	    int id, Pageable pageable);
+
+    List<Transformer> findByType(Transformer.TYPE type);
+
+    // the strongest transformers first, read from the rating indexes
+    List<Transformer> findAllByOrderByOverallRatingDescIdAsc(
+	    Pageable pageable);
+
+    List<Transformer> findByTypeOrderByOverallRatingDescIdAsc(
+	    Transformer.TYPE type, Pageable pageable);
+
+    // every transformer ordered by id, read from an open cursor. Must be
+    // consumed and closed inside a transaction.
+    @Query("select t from Transformer t order by t.id")
+    @QueryHints({
+	    @QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+	    @QueryHint(name = HINT_READONLY, value = "true") })
+    Stream<Transformer> streamAll();
 
+    // overwrites the transformer with the given id in a single statement,
+    // only if it still has the given version. Returns the number of rows
+    // updated, 0 when the transformer is gone or was changed in between.
+    // Entity callbacks don't run for it, the stored rating and the special
+    // role are set here.
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update Transformer t set t.name = :#{#transformer.name},"
+	    + " t.strength = :#{#transformer.strength},"
+	    + " t.intelligence = :#{#transformer.intelligence},"
+	    + " t.speed = :#{#transformer.speed},"
+	    + " t.endurance = :#{#transformer.endurance},"
+	    + " t.rank = :#{#transformer.rank},"
+	    + " t.courage = :#{#transformer.courage},"
+	    + " t.firepower = :#{#transformer.firepower},"
+	    + " t.skill = :#{#transformer.skill},"
+	    + " t.type = :#{#transformer.type},"
+	    + " t.overallRating = :#{#transformer.overallRating},"
+	    + " t.special = :#{#transformer.special},"
+	    + " t.version = t.version + 1"
+	    + " where t.id = :id and t.version = :version")
+    int updateIfVersion(@Param("id") int id, @Param("version") int version,
+	    @Param("transformer") Transformer transformer);
 }
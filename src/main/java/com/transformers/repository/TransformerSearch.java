@@ -0,0 +1,16 @@
+package com.transformers.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.domain.Specification;
+
+import com.transformers.models.Transformer;
+
+public interface TransformerSearch {
+
+    // the transformers matching the specification, one slice at a time.
+    // Unlike JpaSpecificationExecutor.findAll there is no count query, one
+    // more row than the page size tells whether there is a next slice.
+    Slice<Transformer> search(Specification<Transformer> specification,
+	    Pageable pageable);
+}
@@ -0,0 +1,47 @@
+package com.transformers.repository;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+
+import com.transformers.models.Transformer;
+
+class TransformerSearchImpl implements TransformerSearch {
+    private final EntityManager entityManager;
+
+    TransformerSearchImpl(EntityManager entityManager) {
+	this.entityManager = entityManager;
+    }
+
+    @Override
+    public Slice<Transformer> search(Specification<Transformer> specification,
+	    Pageable pageable) {
+	CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+	CriteriaQuery<Transformer> query = builder
+		.createQuery(Transformer.class);
+	Root<Transformer> root = query.from(Transformer.class);
+	Predicate predicate = specification.toPredicate(root, query, builder);
+	if (predicate != null) {
+	    query.where(predicate);
+	}
+	query.orderBy(QueryUtils.toOrders(pageable.getSort(), root, builder));
+
+	int size = pageable.getPageSize();
+	List<Transformer> content = entityManager.createQuery(query)
+		.setFirstResult((int) pageable.getOffset())
+		.setMaxResults(size + 1).getResultList();
+	boolean hasNext = content.size() > size;
+	return new SliceImpl<>(hasNext ? content.subList(0, size) : content,
+		pageable, hasNext);
+    }
+}
@@ -0,0 +1,82 @@
+package com.transformers.repository;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.criteria.Path;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import com.transformers.exceptions.InvalidRangeException;
+import com.transformers.exceptions.UnknownFieldException;
+import com.transformers.models.Transformer;
+
+// Filters for TransformerSearch. Every range becomes a single between, >=
+// or <= predicate on the column of its attribute, so that an equality on
+// the type followed by a range on the rank or the overall rating is served
+// by the (type, rank) and (type, overall_rating) indexes.
+public final class TransformerSpecifications {
+    // the attributes a range can be given for
+    public static final List<String> RANGE_ATTRIBUTES = Collections
+	    .unmodifiableList(Arrays.asList("strength", "intelligence",
+		    "speed", "endurance", "rank", "courage", "firepower",
+		    "skill", "overallRating"));
+
+    private static final String RANGE_SEPARATOR = "..";
+
+    private TransformerSpecifications() {
+    }
+
+    // any transformer when type is null
+    public static Specification<Transformer> ofType(Transformer.TYPE type) {
+	return (root, query, builder) -> type == null ? null
+		: builder.equal(root.get("type"), type);
+    }
+
+    public static Specification<Transformer> idGreaterThan(int id) {
+	return (root, query, builder) -> builder.greaterThan(root.get("id"),
+		id);
+    }
+
+    // range is min..max, min.. or ..max with both ends included, or a single
+    // value
+    public static Specification<Transformer> inRange(String attribute,
+	    String range) {
+	if (!RANGE_ATTRIBUTES.contains(attribute)) {
+	    throw new UnknownFieldException(attribute, RANGE_ATTRIBUTES);
+	}
+	int separator = range.indexOf(RANGE_SEPARATOR);
+	Integer min;
+	Integer max;
+	try {
+	    if (separator < 0) {
+		min = Integer.valueOf(range.trim());
+		max = min;
+	    } else {
+		min = bound(range.substring(0, separator));
+		max = bound(range
+			.substring(separator + RANGE_SEPARATOR.length()));
+	    }
+	} catch (NumberFormatException e) {
+	    throw new InvalidRangeException(attribute, range);
+	}
+	if (min == null && max == null) {
+	    throw new InvalidRangeException(attribute, range);
+	}
+	return (root, query, builder) -> {
+	    Path<Integer> value = root.get(attribute);
+	    if (min == null) {
+		return builder.lessThanOrEqualTo(value, max);
+	    } else if (max == null) {
+		return builder.greaterThanOrEqualTo(value, min);
+	    }
+	    return builder.between(value, min, max);
+	};
+    }
+
+    // an open end is left empty
+    private static Integer bound(String bound) {
+	return bound.trim().isEmpty() ? null : Integer.valueOf(bound.trim());
+    }
+}
@@ -0,0 +1,265 @@
+package com.transformers.services;
+
+import static com.transformers.models.Transformer.TYPE.AUTOBOT;
+import static com.transformers.models.Transformer.TYPE.DECEPTICON;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import com.transformers.models.Transformer;
+
+// Battles between the autobots and the decepticons. The squads are zipped
+// by rank and every pair fights once by the given BattleRules; the score is
+// kept in a BattleScore and the response map is only built once all fights
+// are over.
+public final class BattleEngine {
+    public static final String AUTOBOTS = "AUTOBOTS";
+    public static final String DECEPTICONS = "DECEPTICONS";
+
+    // possible outcomes of a single fight
+    static final int TIE = 0;
+    static final int AUTOBOT_WON = 1;
+    static final int DECEPTICON_WON = 2;
+    static final int DESTROYED = 3;
+
+    // battles with at least this many rounds are fought in parallel chunks
+    // of CHUNK_ROUNDS rounds, see fightInChunks
+    static final int PARALLEL_ROUNDS = 1 << 14;
+    static final int CHUNK_ROUNDS = 1 << 12;
+
+    private BattleEngine() {
+    }
+
+    // a battle by the default rules
+    public static HashMap<String, String> battle(
+	    List<Transformer> transformers) {
+	if (transformers.size() < 2) {
+	    return notEnoughTransformers();
+	}
+	Squad autobots = Squad.of(AUTOBOTS,
+		sortedByRank(transformers, AUTOBOT));
+	Squad decepticons = Squad.of(DECEPTICONS,
+		sortedByRank(transformers, DECEPTICON));
+
+	BattleScore score = new BattleScore();
+	fight(BattleRules.DEFAULT, autobots, decepticons, score);
+	return result(autobots, decepticons, score);
+    }
+
+    // same battle as above but set up from the snapshot of the roster, the
+    // ids that are not saved are ignored
+    public static HashMap<String, String> battle(RosterSnapshot roster,
+	    Collection<Integer> ids) {
+	return report(BattleRules.DEFAULT, roster, ids, false).result;
+    }
+
+    // the battle above by the given rules, with the outcome of every round
+    // recorded when asked for (for the battle history)
+    static BattleReport report(BattleRules rules, RosterSnapshot roster,
+	    Collection<Integer> ids, boolean recordRounds) {
+	long start = System.nanoTime();
+	int[] presentIds = roster.presentIds(ids);
+	start = BattleMetrics.phase(BattleMetrics.LOAD, start);
+	if (presentIds.length < 2) {
+	    return new BattleReport(notEnoughTransformers());
+	}
+	Squad autobots = Squad.of(AUTOBOTS, roster, presentIds,
+		RosterSnapshot.AUTOBOT);
+	Squad decepticons = Squad.of(DECEPTICONS, roster, presentIds,
+		RosterSnapshot.DECEPTICON);
+	start = BattleMetrics.phase(BattleMetrics.SORT, start);
+
+	BattleScore score = new BattleScore();
+	if (recordRounds) {
+	    score.rounds = new byte[Math.min(autobots.size(),
+		    decepticons.size())];
+	}
+	fight(rules, autobots, decepticons, score);
+	start = BattleMetrics.phase(BattleMetrics.FIGHT, start);
+	HashMap<String, String> result = result(autobots, decepticons, score);
+	BattleMetrics.phase(BattleMetrics.SERIALIZE, start);
+	BattleMetrics.battle(presentIds.length, autobots, decepticons, score);
+	return new BattleReport(result, presentIds, score);
+    }
+
+    static HashMap<String, String> notEnoughTransformers() {
+	HashMap<String, String> res = new HashMap<>();
+	res.put("Error", "2 or more valid ids required");
+	return res;
+    }
+
+    static List<Transformer> sortedByRank(List<Transformer> transformers,
+	    Transformer.TYPE type) {
+	List<Transformer> fighters = new ArrayList<>();
+	for (Transformer transformer : transformers) {
+	    if (transformer.getType() == type) {
+		fighters.add(transformer);
+	    }
+	}
+	int[] ranks = new int[fighters.size()];
+	for (int index = 0; index < ranks.length; index++) {
+	    ranks[index] = fighters.get(index).getRank();
+	}
+	// stable, transformers with the same rank keep their order
+	List<Transformer> sorted = new ArrayList<>(ranks.length);
+	for (int index : Squad.rankOrder(ranks, ranks.length)) {
+	    sorted.add(fighters.get(index));
+	}
+	return sorted;
+    }
+
+    static void fight(BattleRules rules, Squad autobots, Squad decepticons,
+	    BattleScore score) {
+	// zipping both the squads so that the iterations are run according to
+	// the squad with the minimum size and fighters in the squad with
+	// larger size are skipped accordingly
+	int rounds = Math.min(autobots.size(), decepticons.size());
+	if (rounds >= PARALLEL_ROUNDS) {
+	    fightInChunks(rules, autobots, decepticons, rounds, score);
+	    return;
+	}
+	fight(rules, autobots, decepticons, 0, rounds, score);
+    }
+
+    // the rounds from first up to end, one after the other, adding to the
+    // score. Nothing is fought once the game is destroyed.
+    static void fight(BattleRules rules, Squad autobots, Squad decepticons,
+	    int first, int end, BattleScore score) {
+	for (int index = first; index < end && !score.destroyed; index++) {
+	    int outcome = duel(rules, autobots, index, decepticons, index);
+	    if (score.rounds != null) {
+		score.rounds[index] = (byte) outcome;
+	    }
+	    // a tie still counts as a battle, and so does the battle that
+	    // destroyed the game
+	    score.battles++;
+	    if (outcome == AUTOBOT_WON) {
+		score.autobotWins++;
+	    } else if (outcome == DECEPTICON_WON) {
+		score.decepticonWins++;
+	    } else if (outcome == DESTROYED) {
+		score.destroyed = true;
+	    }
+	}
+    }
+
+    // a massive battle: the rounds are split into chunks that are fought in
+    // parallel on the fork-join pool of the battle (see BattleExecutor). A
+    // chunk stops at its first round that destroys the game, and no chunk
+    // fights past the earliest such round found so far. Adding up the chunk
+    // tallies in order up to the chunk that destroyed the game gives the
+    // same score as fighting the rounds one after the other.
+    private static void fightInChunks(BattleRules rules, Squad autobots,
+	    Squad decepticons, int rounds, BattleScore score) {
+	int chunks = (rounds + CHUNK_ROUNDS - 1) / CHUNK_ROUNDS;
+	BattleScore[] tallies = new BattleScore[chunks];
+	AtomicInteger destroyedAt = new AtomicInteger(Integer.MAX_VALUE);
+	// every chunk records its own rounds
+	byte[] outcomes = score.rounds;
+	IntStream.range(0, chunks).parallel().forEach(chunk -> {
+	    BattleScore tally = new BattleScore();
+	    int end = Math.min(rounds, (chunk + 1) * CHUNK_ROUNDS);
+	    for (int index = chunk * CHUNK_ROUNDS; index < end
+		    && index < destroyedAt.get(); index++) {
+		int outcome = duel(rules, autobots, index, decepticons,
+			index);
+		if (outcomes != null) {
+		    outcomes[index] = (byte) outcome;
+		}
+		tally.battles++;
+		if (outcome == AUTOBOT_WON) {
+		    tally.autobotWins++;
+		} else if (outcome == DECEPTICON_WON) {
+		    tally.decepticonWins++;
+		} else if (outcome == DESTROYED) {
+		    tally.destroyed = true;
+		    destroyedAt.accumulateAndGet(index, Math::min);
+		    break;
+		}
+	    }
+	    tallies[chunk] = tally;
+	});
+	for (BattleScore tally : tallies) {
+	    score.battles += tally.battles;
+	    score.autobotWins += tally.autobotWins;
+	    score.decepticonWins += tally.decepticonWins;
+	    if (tally.destroyed) {
+		score.destroyed = true;
+		break;
+	    }
+	}
+    }
+
+    static int duel(BattleRules rules, Squad autobots, int autobot,
+	    Squad decepticons, int decepticon) {
+	int outcome = rules.decide(autobots.special[autobot],
+		decepticons.special[decepticon],
+		autobots.courage[autobot] - decepticons.courage[decepticon],
+		autobots.strength[autobot] - decepticons.strength[decepticon],
+		autobots.skill[autobot] - decepticons.skill[decepticon]);
+	if (outcome != BattleRules.BY_RATING) {
+	    return outcome;
+	}
+
+	int ratingDifference = autobots.rating[autobot]
+		- decepticons.rating[decepticon];
+	if (ratingDifference > 0) {
+	    return AUTOBOT_WON;
+	} else if (ratingDifference < 0) {
+	    return DECEPTICON_WON;
+	}
+	return TIE;
+    }
+
+    // the squad that won the battle, null if nobody did. Equal matches are
+    // decided by the overall rating of the strongest member of each squad.
+    static Squad winner(Squad autobots, Squad decepticons, BattleScore score) {
+	if (score.destroyed || autobots.size() == 0
+		|| decepticons.size() == 0) {
+	    return null;
+	}
+	if (score.autobotWins > score.decepticonWins) {
+	    return autobots;
+	} else if (score.decepticonWins > score.autobotWins) {
+	    return decepticons;
+	}
+	int autobotRating = autobots.rating[autobots.strongest()];
+	int decepticonRating = decepticons.rating[decepticons.strongest()];
+	if (autobotRating > decepticonRating) {
+	    return autobots;
+	} else if (decepticonRating > autobotRating) {
+	    return decepticons;
+	}
+	return null;
+    }
+
+    static HashMap<String, String> result(Squad autobots, Squad decepticons,
+	    BattleScore score) {
+	HashMap<String, String> result = new HashMap<>();
+	result.put("NumberOfBattles", score.battles + " battle");
+
+	String survivors = "No survivors";
+	Squad winner = winner(autobots, decepticons, score);
+	if (score.destroyed) {
+	    result.put("Winner", "Everyone was destroyed");
+	} else if (winner == null) {
+	    result.put("Winner", score.battles == 0 ? "No battles fought"
+		    : "Equal matches won by both teams");
+	} else {
+	    // get the winning team name and the member of the winning team
+	    // with the highest rating
+	    result.put("Winner", "Winning team (" + winner.teamName + ") : "
+		    + winner.names[winner.strongest()]);
+	    Squad loser = winner == autobots ? decepticons : autobots;
+	    if (loser.size() > winner.size()) {
+		survivors = loser.survivorNames(winner.size());
+	    }
+	}
+	result.put("Survivors", survivors);
+	return result;
+    }
+}
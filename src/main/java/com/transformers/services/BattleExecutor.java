@@ -0,0 +1,66 @@
+package com.transformers.services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import com.transformers.TransformerProperties;
+import com.transformers.exceptions.BattleQueueFullException;
+
+// Fixed pool of threads the battle endpoints run on, so that long battles
+// never hold on to the request threads that the rest of the api needs.
+// Battles wait in a bounded queue; once it is full new battles are turned
+// away instead of piling up. A battle runs inside a fork-join pool of as
+// many threads, so that the parallel streams it fights its chunks, matches
+// and simulations with fork there and not on the common pool: the pool
+// bounds the cores the battles take, and a large tournament doesn't starve
+// the other parallel streams of the jvm.
+@Component
+public class BattleExecutor {
+    private final ThreadPoolExecutor executor;
+    private final ForkJoinPool forkJoinPool;
+    private final TransformerProperties.BattlePool pool;
+
+    public BattleExecutor(TransformerProperties properties) {
+	this.pool = properties.getBattlePool();
+	AtomicInteger threads = new AtomicInteger();
+	ThreadFactory threadFactory = runnable -> {
+	    Thread thread = new Thread(runnable,
+		    "battle-" + threads.incrementAndGet());
+	    thread.setDaemon(true);
+	    return thread;
+	};
+	this.executor = new ThreadPoolExecutor(pool.getThreads(),
+		pool.getThreads(), 0, TimeUnit.MILLISECONDS,
+		new ArrayBlockingQueue<>(pool.getQueueCapacity()),
+		threadFactory, new ThreadPoolExecutor.AbortPolicy());
+	this.forkJoinPool = new ForkJoinPool(pool.getThreads());
+    }
+
+    // runs the battle on the pool, throws BattleQueueFullException right
+    // away when the queue is full
+    public <T> CompletableFuture<T> submit(Supplier<T> battle) {
+	try {
+	    return CompletableFuture.supplyAsync(
+		    () -> forkJoinPool.submit(battle::get).join(), executor);
+	} catch (RejectedExecutionException e) {
+	    throw new BattleQueueFullException(pool.getRetryAfter());
+	}
+    }
+
+    @PreDestroy
+    public void shutdown() {
+	executor.shutdown();
+	forkJoinPool.shutdown();
+    }
+}
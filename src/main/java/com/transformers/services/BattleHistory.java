@@ -0,0 +1,223 @@
+package com.transformers.services;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import com.transformers.TransformerProperties;
+import com.transformers.exceptions.BattleNotFoundException;
+import com.transformers.models.Battle;
+import com.transformers.repository.BattleRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+// Keeps the battles fought through TransformerService.getBattleResult.
+// Battles are put on a queue and written behind the requests by a single
+// thread, in batched inserts of batch-size battles or whatever came in
+// within flush-interval of the first one. The queue is bounded by the
+// memory its battles take (queue-weight), a battle of a million rounds
+// weighs as much as many small ones. A battle request never waits on the
+// database: when the queue is full the battle is not kept, which is
+// counted by transformers.battle.history.dropped.
+@Component
+@Slf4j
+public class BattleHistory {
+    private static final Counter QUEUE_FULL = dropped("queue_full");
+    private static final Counter WRITE_FAILED = dropped("write_failed");
+
+    private final BattleRepository repository;
+    private final TransformerProperties properties;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long flushInterval;
+    private final long capacity;
+    private final BlockingQueue<Battle> queue = new LinkedBlockingQueue<>();
+    // estimated bytes of the battles queued or being written
+    private final AtomicLong queued = new AtomicLong();
+    // battles queued and battles written or dropped by the writers so far
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public BattleHistory(BattleRepository repository,
+	    TransformerProperties properties) {
+	this.repository = repository;
+	this.properties = properties;
+	TransformerProperties.BattleHistory history = properties
+		.getBattleHistory();
+	this.enabled = history.isEnabled();
+	this.batchSize = history.getBatchSize();
+	this.flushInterval = history.getFlushInterval().toNanos();
+	this.capacity = history.getQueueWeight().toBytes();
+	this.writer = new Thread(this::writeBehind, "battle-history");
+	writer.setDaemon(true);
+	if (enabled) {
+	    writer.start();
+	}
+    }
+
+    private static Counter dropped(String reason) {
+	return Metrics.counter("transformers.battle.history.dropped", "reason",
+		reason);
+    }
+
+    // when false the battles don't record their rounds and none is kept
+    public boolean isEnabled() {
+	return enabled;
+    }
+
+    // queues the battle to be written, returns right away
+    public void record(Battle battle) {
+	if (!enabled) {
+	    return;
+	}
+	long weight = weight(battle);
+	if (queued.addAndGet(weight) > capacity) {
+	    queued.addAndGet(-weight);
+	    QUEUE_FULL.increment();
+	    return;
+	}
+	queue.add(battle);
+	accepted.incrementAndGet();
+    }
+
+    // rough number of bytes the battle keeps alive, its strings take two
+    // bytes per character
+    static long weight(Battle battle) {
+	return 96 + 2L * (length(battle.getParticipants())
+		+ length(battle.getRounds()) + length(battle.getWinner())
+		+ length(battle.getSurvivors()));
+    }
+
+    private static int length(String value) {
+	return value == null ? 0 : value.length();
+    }
+
+    public Battle findById(Long id) throws BattleNotFoundException {
+	return repository.findById(id)
+		.orElseThrow(() -> new BattleNotFoundException(id));
+    }
+
+    // a page of the battles fought since the given time, ordered by id and
+    // starting after the given id, like GET /transformers
+    public Slice<Battle> getBattlesSince(Instant since, Long after,
+	    Integer limit) {
+	TransformerProperties.Page page = properties.getPage();
+	int size = limit == null ? page.getDefaultLimit()
+		: Math.max(1, Math.min(limit, page.getMaxLimit()));
+	return repository.findByFoughtAtGreaterThanEqualAndIdGreaterThan(
+		since == null ? Instant.EPOCH : since,
+		after == null ? 0 : after,
+		PageRequest.of(0, size, Sort.by("id")));
+    }
+
+    // writes the battles waiting in the queue from the calling thread, and
+    // waits for the batch the writer thread may be holding, so that every
+    // battle recorded before the call is written when it returns
+    public void flush() {
+	long recorded = accepted.get();
+	List<Battle> batch = new ArrayList<>(batchSize);
+	while (queue.drainTo(batch, batchSize) > 0) {
+	    write(batch);
+	    batch.clear();
+	}
+	synchronized (this) {
+	    while (written.get() < recorded && writer.isAlive()) {
+		try {
+		    wait(TimeUnit.NANOSECONDS.toMillis(flushInterval) + 1);
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    return;
+		}
+	    }
+	}
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+	running = false;
+	// the writer notices within a flush interval
+	writer.join(TimeUnit.NANOSECONDS.toMillis(flushInterval) + 1000);
+	flush();
+    }
+
+    private void writeBehind() {
+	List<Battle> batch = new ArrayList<>(batchSize);
+	while (running) {
+	    try {
+		Battle first = queue.poll(flushInterval, TimeUnit.NANOSECONDS);
+		if (first == null) {
+		    continue;
+		}
+		batch.add(first);
+		long deadline = System.nanoTime() + flushInterval;
+		while (batch.size() < batchSize) {
+		    queue.drainTo(batch, batchSize - batch.size());
+		    long left = deadline - System.nanoTime();
+		    if (batch.size() == batchSize || left <= 0) {
+			break;
+		    }
+		    Battle next = queue.poll(left, TimeUnit.NANOSECONDS);
+		    if (next == null) {
+			break;
+		    }
+		    batch.add(next);
+		}
+	    } catch (InterruptedException e) {
+		running = false;
+	    }
+	    if (!batch.isEmpty()) {
+		write(batch);
+		batch.clear();
+	    }
+	}
+    }
+
+    // one transaction, the inserts are sent in jdbc batches
+    // (hibernate.jdbc.batch_size). When the batch can't be written the
+    // battles are written one at a time, so that a bad one only loses
+    // itself. The battles leave the queue's weight once written or dropped.
+    private void write(List<Battle> batch) {
+	try {
+	    repository.saveAll(batch);
+	} catch (RuntimeException e) {
+	    log.warn("Could not write a batch of " + batch.size()
+		    + " battles, writing them one at a time", e);
+	    batch.forEach(this::writeOne);
+	} finally {
+	    queued.addAndGet(-batch.stream().mapToLong(BattleHistory::weight)
+		    .sum());
+	    written.addAndGet(batch.size());
+	    synchronized (this) {
+		notifyAll();
+	    }
+	}
+    }
+
+    private void writeOne(Battle battle) {
+	try {
+	    // a copy, the failed batch may have given the battle an id
+	    repository.save(new Battle(battle.getFoughtAt(),
+		    battle.getParticipants(), battle.getRounds(),
+		    battle.getWinner(), battle.getSurvivors(),
+		    battle.getNumberOfBattles()));
+	} catch (RuntimeException e) {
+	    log.warn("Could not write a battle", e);
+	    WRITE_FAILED.increment();
+	}
+    }
+}
@@ -0,0 +1,48 @@
+package com.transformers.services;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+
+// Key of a memoized battle: the distinct ids of the request in ascending
+// order, each followed by the version the roster has for it (-1 when the id
+// is not saved). Any update, save or delete of a participant changes the
+// key, so a stale result can never be found again and ages out of the
+// cache. So does a reload of the battle rules, the rules the battle is
+// fought by are part of the key.
+final class BattleKey {
+    private final BattleRules rules;
+    private final int[] idsAndVersions;
+    private final int hash;
+
+    private BattleKey(BattleRules rules, int[] idsAndVersions) {
+	this.rules = rules;
+	this.idsAndVersions = idsAndVersions;
+	this.hash = 31 * System.identityHashCode(rules)
+		+ Arrays.hashCode(idsAndVersions);
+    }
+
+    static BattleKey of(BattleRules rules, RosterSnapshot roster,
+	    Collection<Integer> ids) {
+	int[] sorted = ids.stream().filter(Objects::nonNull)
+		.mapToInt(Integer::intValue).sorted().distinct().toArray();
+	int[] idsAndVersions = new int[sorted.length * 2];
+	for (int index = 0; index < sorted.length; index++) {
+	    idsAndVersions[2 * index] = sorted[index];
+	    idsAndVersions[2 * index + 1] = roster.versionOf(sorted[index]);
+	}
+	return new BattleKey(rules, idsAndVersions);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+	return other instanceof BattleKey && rules == ((BattleKey) other).rules
+		&& Arrays.equals(idsAndVersions,
+			((BattleKey) other).idsAndVersions);
+    }
+
+    @Override
+    public int hashCode() {
+	return hash;
+    }
+}
@@ -0,0 +1,76 @@
+package com.transformers.services;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+// Meters of the battles fought by the BattleEngine. They live on the global
+// registry, which Spring Boot adds its own registries to; until then (in the
+// unit tests and the benchmarks) recording costs next to nothing.
+final class BattleMetrics {
+    // time spent in each phase of a battle: finding the saved ids (load),
+    // setting up the squads in rank order (sort), the fights themselves
+    // (fight) and building the response (serialize)
+    static final Timer LOAD = phase("load");
+    static final Timer SORT = phase("sort");
+    static final Timer FIGHT = phase("fight");
+    static final Timer SERIALIZE = phase("serialize");
+
+    // saved transformers taking part in a battle
+    static final DistributionSummary SIZE = Metrics
+	    .summary("transformers.battle.size");
+    // fights of a battle, including the one that destroyed everything
+    static final DistributionSummary ROUNDS = Metrics
+	    .summary("transformers.battle.rounds");
+    // fights decided by the special rule, by who it applied to
+    static final Counter OPTIMUS_PRIME = special("optimus_prime");
+    static final Counter PREDAKING = special("predaking");
+    static final Counter DESTROYED = special("destroyed");
+
+    private BattleMetrics() {
+    }
+
+    private static Timer phase(String phase) {
+	return Metrics.timer("transformers.battle.phase", "phase", phase);
+    }
+
+    private static Counter special(String rule) {
+	return Metrics.counter("transformers.battle.special", "rule", rule);
+    }
+
+    // records the time since start in the phase and returns the current
+    // time, the start of the next phase
+    static long phase(Timer phase, long start) {
+	long now = System.nanoTime();
+	phase.record(now - start, TimeUnit.NANOSECONDS);
+	return now;
+    }
+
+    static void battle(int size, Squad autobots, Squad decepticons,
+	    BattleScore score) {
+	SIZE.record(size);
+	ROUNDS.record(score.battles);
+	int optimusPrime = 0;
+	int predaking = 0;
+	for (int index = 0; index < score.battles; index++) {
+	    boolean autobotSpecial = autobots.special[index];
+	    boolean decepticonSpecial = decepticons.special[index];
+	    if (autobotSpecial && decepticonSpecial) {
+		DESTROYED.increment();
+	    } else if (autobotSpecial) {
+		optimusPrime++;
+	    } else if (decepticonSpecial) {
+		predaking++;
+	    }
+	}
+	if (optimusPrime > 0) {
+	    OPTIMUS_PRIME.increment(optimusPrime);
+	}
+	if (predaking > 0) {
+	    PREDAKING.increment(predaking);
+	}
+    }
+}
@@ -0,0 +1,83 @@
+package com.transformers.services;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.transformers.models.Battle;
+
+// The response of a battle along with who took part and how every round
+// went, memoized together so that a repeated battle can be kept in the
+// battle history without being fought again. The rounds are only recorded
+// while the history is on, and they are kept as one byte per round; the
+// strings of the history are only built for the battles that are kept.
+final class BattleReport {
+    // indexed by the outcome codes of BattleEngine
+    static final char[] ROUND_OUTCOMES = { Battle.TIE,
+	    Battle.AUTOBOTS_WON, Battle.DECEPTICONS_WON, Battle.DESTROYED };
+
+    final HashMap<String, String> result;
+    // null when there were not enough transformers to fight
+    private final int[] participants;
+    // the outcome code of every round fought, null when not recorded
+    private final byte[] rounds;
+    private final int battles;
+
+    BattleReport(HashMap<String, String> result) {
+	this.result = result;
+	this.participants = null;
+	this.rounds = null;
+	this.battles = 0;
+    }
+
+    BattleReport(HashMap<String, String> result, int[] participants,
+	    BattleScore score) {
+	this.result = result;
+	this.participants = participants;
+	// a destroyed game leaves the rounds after it unfought
+	this.rounds = score.rounds == null
+		|| score.rounds.length == score.battles ? score.rounds
+			: Arrays.copyOf(score.rounds, score.battles);
+	this.battles = score.battles;
+    }
+
+    boolean fought() {
+	return participants != null;
+    }
+
+    // whether the battle can go to the history
+    boolean recorded() {
+	return rounds != null;
+    }
+
+    // rough number of bytes the report keeps alive, the weight of its entry
+    // in the battle cache
+    int weight() {
+	long weight = 64;
+	for (Map.Entry<String, String> entry : result.entrySet()) {
+	    weight += 48 + 2L * (entry.getKey().length()
+		    + entry.getValue().length());
+	}
+	if (participants != null) {
+	    weight += 4L * participants.length;
+	}
+	if (rounds != null) {
+	    weight += rounds.length;
+	}
+	return (int) Math.min(Integer.MAX_VALUE, weight);
+    }
+
+    Battle toBattle(Instant foughtAt) {
+	char[] outcomes = new char[rounds.length];
+	for (int round = 0; round < outcomes.length; round++) {
+	    outcomes[round] = ROUND_OUTCOMES[rounds[round]];
+	}
+	return new Battle(foughtAt,
+		Arrays.stream(participants).mapToObj(Integer::toString)
+			.collect(Collectors.joining(",")),
+		new String(outcomes), result.get("Winner"),
+		result.get("Survivors"), battles);
+    }
+}
@@ -0,0 +1,62 @@
+package com.transformers.services;
+
+import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
+import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.data.domain.Slice;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.Resource;
+import org.springframework.hateoas.ResourceAssembler;
+import org.springframework.hateoas.Resources;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.transformers.controller.TransformerController;
+import com.transformers.models.Battle;
+
+@Component
+public class BattleResourceAssembler
+	implements ResourceAssembler<Battle, Resource<Battle>> {
+
+    @Override
+    public Resource<Battle> toResource(Battle battle) {
+	return new Resource<>(battle,
+		linkTo(methodOn(TransformerController.class)
+			.findBattleById(battle.getId())).withSelfRel());
+    }
+
+    // a page of GET /battles with a link to the next page if there is one,
+    // which starts after the last id of this one
+    public Resources<Resource<Battle>> toPage(Slice<Battle> slice,
+	    Instant since, Long after) {
+	List<Resource<Battle>> battles = slice.getContent().stream()
+		.map(this::toResource).collect(Collectors.toList());
+	Resources<Resource<Battle>> page = new Resources<>(battles);
+	page.add(pageLink(since, after, slice.getSize(), Link.REL_SELF));
+	if (slice.hasNext()) {
+	    List<Battle> content = slice.getContent();
+	    page.add(pageLink(since, content.get(content.size() - 1).getId(),
+		    slice.getSize(), Link.REL_NEXT));
+	}
+	return page;
+    }
+
+    // since is written as an ISO instant, the format GET /battles reads
+    private static Link pageLink(Instant since, Long after, int limit,
+	    String rel) {
+	UriComponentsBuilder builder = UriComponentsBuilder.fromUri(
+		linkTo(TransformerController.class).slash("battles").toUri());
+	if (since != null) {
+	    builder.queryParam("since", since);
+	}
+	if (after != null) {
+	    builder.queryParam("after", after);
+	}
+	builder.queryParam("limit", limit);
+	return new Link(builder.toUriString(), rel);
+    }
+}
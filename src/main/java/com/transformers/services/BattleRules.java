@@ -0,0 +1,122 @@
+package com.transformers.services;
+
+import com.transformers.TransformerProperties;
+
+// The rules of a fight compiled into lookup tables. The difference between
+// the two fighters in each attribute with a margin maps to the side it
+// favours, and these sides together with the special roles of the fighters
+// index the outcome. Every fight costs the same few loads whatever the
+// margins are; other margins give another BattleRules (see
+// BattleRulesHolder) and never a branch more.
+public final class BattleRules {
+    // the fight is decided by the overall ratings
+    static final int BY_RATING = -1;
+
+    static final BattleRules DEFAULT = compile(
+	    new TransformerProperties.BattleRules());
+
+    // largest margin, differences are clamped to it which gives the same
+    // outcome for any margin up to it
+    private static final int MAX_MARGIN = 10;
+
+    // bits of the outcome index
+    private static final int AUTOBOT_AHEAD = 1;
+    private static final int DECEPTICON_AHEAD = 2;
+    private static final int AUTOBOT_SPECIAL = 4;
+    private static final int DECEPTICON_SPECIAL = 8;
+
+    private final int courageMargin;
+    private final int strengthMargin;
+    private final int skillMargin;
+    // by difference + MAX_MARGIN, the side ahead if any
+    private final byte[] courage;
+    private final byte[] strength;
+    private final byte[] skill;
+    private final byte[] outcomes;
+
+    private BattleRules(int courageMargin, int strengthMargin,
+	    int skillMargin) {
+	this.courageMargin = courageMargin;
+	this.strengthMargin = strengthMargin;
+	this.skillMargin = skillMargin;
+	this.courage = sides(courageMargin);
+	this.strength = sides(strengthMargin);
+	this.skill = sides(skillMargin);
+	this.outcomes = new byte[16];
+	for (int index = 0; index < outcomes.length; index++) {
+	    outcomes[index] = (byte) outcome(index);
+	}
+    }
+
+    static BattleRules compile(TransformerProperties.BattleRules rules) {
+	return new BattleRules(margin(rules.getCourage()),
+		margin(rules.getStrength()), margin(rules.getSkill()));
+    }
+
+    private static int margin(int margin) {
+	if (margin < 1 || margin > MAX_MARGIN) {
+	    throw new IllegalArgumentException(
+		    "margins are between 1 and " + MAX_MARGIN);
+	}
+	return margin;
+    }
+
+    private static byte[] sides(int margin) {
+	byte[] sides = new byte[2 * MAX_MARGIN + 1];
+	for (int difference = -MAX_MARGIN; difference <= MAX_MARGIN;
+		difference++) {
+	    if (difference >= margin) {
+		sides[difference + MAX_MARGIN] = AUTOBOT_AHEAD;
+	    } else if (difference <= -margin) {
+		sides[difference + MAX_MARGIN] = DECEPTICON_AHEAD;
+	    }
+	}
+	return sides;
+    }
+
+    // the special rules come first: both special fighters destroy the game
+    // and a special fighter beats any other. Then the autobot wins if it is
+    // ahead in any attribute, before the decepticon is checked.
+    private static int outcome(int index) {
+	boolean autobotSpecial = (index & AUTOBOT_SPECIAL) != 0;
+	boolean decepticonSpecial = (index & DECEPTICON_SPECIAL) != 0;
+	if (autobotSpecial && decepticonSpecial) {
+	    return BattleEngine.DESTROYED;
+	} else if (autobotSpecial) {
+	    return BattleEngine.AUTOBOT_WON;
+	} else if (decepticonSpecial) {
+	    return BattleEngine.DECEPTICON_WON;
+	} else if ((index & AUTOBOT_AHEAD) != 0) {
+	    return BattleEngine.AUTOBOT_WON;
+	} else if ((index & DECEPTICON_AHEAD) != 0) {
+	    return BattleEngine.DECEPTICON_WON;
+	}
+	return BY_RATING;
+    }
+
+    // the outcome of a fight, BY_RATING if none of the rules decides it
+    int decide(boolean autobotSpecial, boolean decepticonSpecial,
+	    int courageDifference, int strengthDifference,
+	    int skillDifference) {
+	return outcomes[courage[clamp(courageDifference)]
+		| strength[clamp(strengthDifference)]
+		| skill[clamp(skillDifference)]
+		| (autobotSpecial ? AUTOBOT_SPECIAL : 0)
+		| (decepticonSpecial ? DECEPTICON_SPECIAL : 0)];
+    }
+
+    private static int clamp(int difference) {
+	return Math.max(-MAX_MARGIN, Math.min(MAX_MARGIN, difference))
+		+ MAX_MARGIN;
+    }
+
+    // the margins these rules were compiled from
+    public TransformerProperties.BattleRules getMargins() {
+	TransformerProperties.BattleRules margins =
+		new TransformerProperties.BattleRules();
+	margins.setCourage(courageMargin);
+	margins.setStrength(strengthMargin);
+	margins.setSkill(skillMargin);
+	return margins;
+    }
+}
@@ -0,0 +1,28 @@
+package com.transformers.services;
+
+import org.springframework.stereotype.Component;
+
+import com.transformers.TransformerProperties;
+
+// The battle rules in force, compiled from transformers.battle-rules at
+// startup and replaced by PUT /battles/rules while the api runs. A battle
+// reads them once before its first fight, so all the fights of a battle
+// (or of a tournament) follow the same rules.
+@Component
+public class BattleRulesHolder {
+    private volatile BattleRules current;
+
+    public BattleRulesHolder(TransformerProperties properties) {
+	this.current = BattleRules.compile(properties.getBattleRules());
+    }
+
+    public BattleRules current() {
+	return current;
+    }
+
+    public BattleRules reload(TransformerProperties.BattleRules rules) {
+	BattleRules compiled = BattleRules.compile(rules);
+	current = compiled;
+	return compiled;
+    }
+}
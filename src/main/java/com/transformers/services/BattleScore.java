@@ -0,0 +1,28 @@
+package com.transformers.services;
+
+// Running tally of a battle, kept in primitive fields so that recording a
+// round does not allocate anything.
+public final class BattleScore {
+    int autobotWins;
+    int decepticonWins;
+    int battles;
+    boolean destroyed;
+    // when set, the outcome code (see BattleEngine) of every round fought
+    byte[] rounds;
+
+    public int getAutobotWins() {
+	return autobotWins;
+    }
+
+    public int getDecepticonWins() {
+	return decepticonWins;
+    }
+
+    public int getBattles() {
+	return battles;
+    }
+
+    public boolean isDestroyed() {
+	return destroyed;
+    }
+}
@@ -0,0 +1,61 @@
+package com.transformers.services;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+// A battle fought a chunk of rounds at a time for the clients that follow
+// it as it goes. After every chunk the listener gets the outcomes of its
+// rounds and the score so far, and stops the battle by returning false.
+final class BattleStream {
+    private BattleStream() {
+    }
+
+    // the battle of the saved ids among the given ones, null when the
+    // listener stopped it. The rounds of a chunk are sent as one letter per
+    // round, the same ones as in the battle history.
+    static BattleReport fight(BattleRules rules, RosterSnapshot roster,
+	    Collection<Integer> ids, int chunkRounds,
+	    Predicate<HashMap<String, Object>> listener) {
+	int[] presentIds = roster.presentIds(ids);
+	if (presentIds.length < 2) {
+	    return new BattleReport(BattleEngine.notEnoughTransformers());
+	}
+	Squad autobots = Squad.of(BattleEngine.AUTOBOTS, roster, presentIds,
+		RosterSnapshot.AUTOBOT);
+	Squad decepticons = Squad.of(BattleEngine.DECEPTICONS, roster,
+		presentIds, RosterSnapshot.DECEPTICON);
+
+	BattleScore score = new BattleScore();
+	int rounds = Math.min(autobots.size(), decepticons.size());
+	score.rounds = new byte[rounds];
+	while (score.battles < rounds && !score.destroyed) {
+	    int first = score.battles;
+	    BattleEngine.fight(rules, autobots, decepticons, first,
+		    Math.min(rounds, first + Math.max(1, chunkRounds)), score);
+	    if (!listener.test(progress(score, first))) {
+		return null;
+	    }
+	}
+	HashMap<String, String> result = BattleEngine.result(autobots,
+		decepticons, score);
+	BattleMetrics.battle(presentIds.length, autobots, decepticons, score);
+	return new BattleReport(result, presentIds, score);
+    }
+
+    private static HashMap<String, Object> progress(BattleScore score,
+	    int first) {
+	char[] letters = BattleReport.ROUND_OUTCOMES;
+	char[] outcomes = new char[score.battles - first];
+	for (int round = first; round < score.battles; round++) {
+	    outcomes[round - first] = letters[score.rounds[round]];
+	}
+	HashMap<String, Object> progress = new HashMap<>();
+	progress.put("FirstRound", first + 1);
+	progress.put("Rounds", new String(outcomes));
+	progress.put("NumberOfBattles", score.battles);
+	progress.put("AutobotWins", score.autobotWins);
+	progress.put("DecepticonWins", score.decepticonWins);
+	return progress;
+    }
+}
@@ -0,0 +1,134 @@
+package com.transformers.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import com.transformers.models.Transformer;
+import com.transformers.repository.TransformerRepository;
+
+// The strongest transformers, per type and over all types: highest overall
+// rating first, then lowest id. Each board keeps the best `size`
+// transformers in an array that is replaced copy-on-write whenever a change
+// commits, so reading the top k copies nothing but those k. A board is
+// loaded from the rating indexes on first use. When a transformer leaves a
+// full board (deleted, other type or rating fell below the board) the one
+// that takes its place may not be known, so the board is loaded again on
+// the next read.
+final class Leaderboard {
+    static final Comparator<Transformer> ORDER = Comparator
+	    .comparingInt(Transformer::getOverallRating).reversed()
+	    .thenComparingInt(Transformer::getId);
+
+    // index of the board of all types, the others are at their type ordinal
+    private static final int ALL = Transformer.TYPE.values().length;
+
+    private final TransformerRepository repository;
+    private final int size;
+    private final Object lock = new Object();
+    // null until loaded
+    private final AtomicReferenceArray<Transformer[]> boards =
+	    new AtomicReferenceArray<>(ALL + 1);
+
+    Leaderboard(TransformerRepository repository, int size) {
+	this.repository = repository;
+	this.size = size;
+    }
+
+    // the k strongest transformers of the given type, of all types when
+    // type is null. k is at most the size of the board.
+    List<Transformer> top(int k, Transformer.TYPE type) {
+	Transformer[] board = board(type == null ? ALL : type.ordinal());
+	return Collections.unmodifiableList(Arrays.asList(board).subList(0,
+		Math.max(0, Math.min(k, board.length))));
+    }
+
+    void apply(Collection<Transformer> saved, Collection<Integer> deleted) {
+	synchronized (lock) {
+	    for (int index = 0; index < boards.length(); index++) {
+		Transformer[] board = boards.get(index);
+		if (board != null) {
+		    boards.set(index, apply(board, index, saved, deleted));
+		}
+	    }
+	}
+    }
+
+    private Transformer[] board(int index) {
+	Transformer[] board = boards.get(index);
+	if (board == null) {
+	    synchronized (lock) {
+		board = boards.get(index);
+		if (board == null) {
+		    board = load(index).toArray(new Transformer[0]);
+		    boards.set(index, board);
+		}
+	    }
+	}
+	return board;
+    }
+
+    private List<Transformer> load(int index) {
+	Pageable best = PageRequest.of(0, size);
+	return index == ALL
+		? repository.findAllByOrderByOverallRatingDescIdAsc(best)
+		: repository.findByTypeOrderByOverallRatingDescIdAsc(
+			Transformer.TYPE.values()[index], best);
+    }
+
+    // the board after the changes, null when it has to be loaded again
+    private Transformer[] apply(Transformer[] board, int index,
+	    Collection<Transformer> saved, Collection<Integer> deleted) {
+	// a full board ranks every transformer that is not on it after its
+	// last one, a board that is not full holds all of them
+	Transformer last = board.length == size ? board[size - 1] : null;
+	List<Transformer> members = new ArrayList<>(Arrays.asList(board));
+	if (deleted != null) {
+	    for (Integer id : deleted) {
+		if (remove(members, id) && last != null) {
+		    return null;
+		}
+	    }
+	}
+	if (saved != null) {
+	    for (Transformer transformer : saved) {
+		boolean member = remove(members, transformer.getId());
+		if (belongs(transformer, index) && (last == null
+			|| ORDER.compare(transformer, last) <= 0)) {
+		    int position = Collections.binarySearch(members,
+			    transformer, ORDER);
+		    members.add(position < 0 ? -position - 1 : position,
+			    transformer);
+		} else if (member && last != null) {
+		    return null;
+		}
+	    }
+	}
+	if (members.size() > size) {
+	    members = members.subList(0, size);
+	}
+	return members.toArray(new Transformer[0]);
+    }
+
+    private static boolean belongs(Transformer transformer, int index) {
+	return index == ALL || transformer.getType() != null
+		&& transformer.getType().ordinal() == index;
+    }
+
+    private static boolean remove(List<Transformer> members, Integer id) {
+	for (int member = 0; member < members.size(); member++) {
+	    if (id != null && members.get(member).getId() == id) {
+		members.remove(member);
+		return true;
+	    }
+	}
+	return false;
+    }
+}
@@ -0,0 +1,335 @@
+package com.transformers.services;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+
+import com.transformers.models.Transformer;
+
+// The order a team should fight in against an opponent fighting in rank
+// order. Every fighter of the team is paired with every fighter of the
+// opponent that takes part (in parallel, one opponent at a time), and the
+// pairings are assigned with the Hungarian algorithm, started from the
+// largest set of winning pairings found by Hopcroft-Karp. Both run in
+// polynomial time, no lineup is tried out.
+public final class Lineup {
+    public enum OBJECTIVE {
+	// as many fights won as possible
+	WINS,
+	// as many more fights won than lost as possible
+	MARGIN
+    }
+
+    // outcomes of a pairing, seen from the team
+    private static final byte TIE = BattleEngine.TIE;
+    private static final byte WON = BattleEngine.AUTOBOT_WON;
+    private static final byte LOST = BattleEngine.DECEPTICON_WON;
+    private static final byte DESTROYED = BattleEngine.DESTROYED;
+
+    // costs of the outcomes for the assignment, by objective. A pairing that
+    // destroys the game is given a cost higher than all the others can make
+    // up for, so it is only chosen when it can't be avoided.
+    private static final int[] WINS_COSTS = { 0, -1, 0, 0 };
+    private static final int[] MARGIN_COSTS = { 0, -1, 1, 0 };
+
+    private final byte[][] outcomes;
+    private final int[] costs;
+    private final int fights;
+    private final int fighters;
+
+    private Lineup(byte[][] outcomes, int fighters, OBJECTIVE objective) {
+	this.outcomes = outcomes;
+	this.fights = outcomes.length;
+	this.fighters = fighters;
+	this.costs = (objective == OBJECTIVE.MARGIN ? MARGIN_COSTS
+		: WINS_COSTS).clone();
+	costs[DESTROYED] = fights + 2;
+    }
+
+    // the saved ids among team fight for the given side, the ones among
+    // opponent for the other, whatever their type (as in a tournament)
+    public static HashMap<String, Object> optimize(BattleRules rules,
+	    RosterSnapshot roster, Collection<Integer> team,
+	    Collection<Integer> opponent, Transformer.TYPE side,
+	    OBJECTIVE objective) {
+	boolean autobots = side != Transformer.TYPE.DECEPTICON;
+	Squad ours = Squad.team(
+		autobots ? BattleEngine.AUTOBOTS : BattleEngine.DECEPTICONS,
+		roster, roster.presentIds(team));
+	Squad theirs = Squad.team(
+		autobots ? BattleEngine.DECEPTICONS : BattleEngine.AUTOBOTS,
+		roster, roster.presentIds(opponent));
+	if (ours.size() == 0 || theirs.size() == 0) {
+	    HashMap<String, Object> res = new HashMap<>();
+	    res.put("Error", "1 or more valid ids required for each team");
+	    return res;
+	}
+
+	// the opponents that get to fight, in the order they fight
+	int fights = Math.min(ours.size(), theirs.size());
+	byte[][] outcomes = new byte[fights][];
+	IntStream.range(0, fights).parallel().forEach(opponentIndex -> {
+	    byte[] row = new byte[ours.size()];
+	    for (int fighter = 0; fighter < row.length; fighter++) {
+		row[fighter] = autobots
+			? (byte) BattleEngine.duel(rules, ours, fighter, theirs,
+				opponentIndex)
+			: swapped(BattleEngine.duel(rules, theirs,
+				opponentIndex, ours, fighter));
+	    }
+	    outcomes[opponentIndex] = row;
+	});
+	int[] fighterOf = new Lineup(outcomes, ours.size(), objective)
+		.assign();
+
+	// the fighters left over go last, in rank order
+	int[] order = new int[ours.size()];
+	boolean[] chosen = new boolean[ours.size()];
+	for (int index = 0; index < fights; index++) {
+	    order[index] = fighterOf[index];
+	    chosen[fighterOf[index]] = true;
+	}
+	int next = fights;
+	for (int fighter = 0; fighter < ours.size(); fighter++) {
+	    if (!chosen[fighter]) {
+		order[next++] = fighter;
+	    }
+	}
+	int[] tally = new int[4];
+	for (int index = 0; index < fights; index++) {
+	    tally[outcomes[index][fighterOf[index]]]++;
+	}
+
+	Squad lineup = ours.reordered(order);
+	BattleScore score = new BattleScore();
+	HashMap<String, String> result;
+	if (autobots) {
+	    BattleEngine.fight(rules, lineup, theirs, score);
+	    result = BattleEngine.result(lineup, theirs, score);
+	} else {
+	    BattleEngine.fight(rules, theirs, lineup, score);
+	    result = BattleEngine.result(theirs, lineup, score);
+	}
+	HashMap<String, Object> res = new HashMap<>();
+	res.put("Lineup", lineup.ids);
+	res.put("Opponents", Arrays.copyOf(theirs.ids, fights));
+	res.put("Won", tally[WON]);
+	res.put("Lost", tally[LOST]);
+	res.put("Tied", tally[TIE]);
+	res.put("Result", result);
+	return res;
+    }
+
+    private static byte swapped(int outcome) {
+	if (outcome == BattleEngine.AUTOBOT_WON) {
+	    return LOST;
+	} else if (outcome == BattleEngine.DECEPTICON_WON) {
+	    return WON;
+	}
+	return (byte) outcome;
+    }
+
+    // the fighter of the team for every fight, at the lowest total cost
+    private int[] assign() {
+	int[] fighterOf = new int[fights];
+	int[] fightOf = new int[fighters];
+	Arrays.fill(fighterOf, -1);
+	Arrays.fill(fightOf, -1);
+	// the fighters that win each fight
+	int[][] wins = new int[fights][];
+	IntStream.range(0, fights).parallel().forEach(fight -> {
+	    int[] winners = new int[fighters];
+	    int count = 0;
+	    for (int fighter = 0; fighter < fighters; fighter++) {
+		if (outcomes[fight][fighter] == WON) {
+		    winners[count++] = fighter;
+		}
+	    }
+	    wins[fight] = Arrays.copyOf(winners, count);
+	});
+	maximumWins(wins, fighterOf, fightOf);
+	int[] fightPotential = new int[fights];
+	int[] fighterPotential = new int[fighters + 1];
+	cover(wins, fighterOf, fightOf, fightPotential, fighterPotential);
+	minimumCost(fighterOf, fightOf, fightPotential, fighterPotential);
+	return fighterOf;
+    }
+
+    // Hopcroft-Karp on the winning pairings: each phase finds the shortest
+    // augmenting paths from the fights without a fighter by a breadth first
+    // search, then takes a maximal set of disjoint ones of them
+    private void maximumWins(int[][] wins, int[] fighterOf, int[] fightOf) {
+	int[] distance = new int[fights];
+	int[] queue = new int[fights];
+	int[] next = new int[fights];
+	int[] path = new int[fights];
+	while (true) {
+	    // layers of fights, alternating between winning pairings and the
+	    // assigned ones
+	    int head = 0;
+	    int tail = 0;
+	    for (int fight = 0; fight < fights; fight++) {
+		distance[fight] = fighterOf[fight] < 0 ? 0 : Integer.MAX_VALUE;
+		if (fighterOf[fight] < 0) {
+		    queue[tail++] = fight;
+		}
+	    }
+	    boolean found = false;
+	    while (head < tail) {
+		int fight = queue[head++];
+		for (int fighter : wins[fight]) {
+		    int other = fightOf[fighter];
+		    if (other < 0) {
+			found = true;
+		    } else if (distance[other] == Integer.MAX_VALUE) {
+			distance[other] = distance[fight] + 1;
+			queue[tail++] = other;
+		    }
+		}
+	    }
+	    if (!found) {
+		return;
+	    }
+	    // depth first along the layers, without recursion. path holds the
+	    // fights of the current path, next the position in their list of
+	    // wins.
+	    Arrays.fill(next, 0);
+	    for (int start = 0; start < fights; start++) {
+		if (fighterOf[start] >= 0 || distance[start] != 0) {
+		    continue;
+		}
+		int depth = 0;
+		path[0] = start;
+		while (depth >= 0) {
+		    int fight = path[depth];
+		    if (next[fight] == wins[fight].length) {
+			// dead end, never tried again in this phase
+			distance[fight] = Integer.MAX_VALUE;
+			depth--;
+			continue;
+		    }
+		    int fighter = wins[fight][next[fight]++];
+		    int other = fightOf[fighter];
+		    if (other < 0) {
+			// augment: every fight of the path takes the fighter
+			// it went through
+			for (int level = depth; level >= 0; level--) {
+			    int pathFight = path[level];
+			    int pathFighter = wins[pathFight][next[pathFight]
+				    - 1];
+			    fighterOf[pathFight] = pathFighter;
+			    fightOf[pathFighter] = pathFight;
+			}
+			break;
+		    } else if (distance[other] == distance[fight] + 1) {
+			path[++depth] = other;
+		    }
+		}
+	    }
+	}
+    }
+
+    // starting potentials of the assignment from a minimum vertex cover of
+    // the winning pairings (Koenig): the fights and fighters in it get -1,
+    // the others 0. No pairing costs less than its two potentials, the
+    // assigned winning pairings cost exactly that, and so do the pairings
+    // that are neither won nor destroy the game between the fights and
+    // fighters left over, which the Hungarian algorithm then takes first.
+    private void cover(int[][] wins, int[] fighterOf, int[] fightOf,
+	    int[] fightPotential, int[] fighterPotential) {
+	// the fights and fighters reached from the fights without a fighter
+	// by winning pairings, going back by the assigned ones
+	boolean[] reachedFight = new boolean[fights];
+	int[] queue = new int[fights];
+	int tail = 0;
+	for (int fight = 0; fight < fights; fight++) {
+	    if (fighterOf[fight] < 0) {
+		reachedFight[fight] = true;
+		queue[tail++] = fight;
+	    }
+	}
+	for (int head = 0; head < tail; head++) {
+	    for (int fighter : wins[queue[head]]) {
+		if (fighterPotential[fighter] == 0) {
+		    fighterPotential[fighter] = -1;
+		    int other = fightOf[fighter];
+		    if (other >= 0 && !reachedFight[other]) {
+			reachedFight[other] = true;
+			queue[tail++] = other;
+		    }
+		}
+	    }
+	}
+	for (int fight = 0; fight < fights; fight++) {
+	    fightPotential[fight] = reachedFight[fight] ? 0 : -1;
+	}
+    }
+
+    // Hungarian algorithm (shortest augmenting paths with potentials) for
+    // the fights still without a fighter. Of the closest fighters the
+    // search takes one without a fight first, which ends it.
+    private void minimumCost(int[] fighterOf, int[] fightOf,
+	    int[] fightPotential, int[] fighterPotential) {
+	// the state of the search by fighter, the extra fighter at index
+	// fighters stands for the root of the search
+	int[] minimum = new int[fighters + 1];
+	int[] from = new int[fighters + 1];
+	boolean[] reached = new boolean[fighters + 1];
+	int[] owner = Arrays.copyOf(fightOf, fighters + 1);
+	int root = fighters;
+
+	for (int fight = 0; fight < fights; fight++) {
+	    if (fighterOf[fight] >= 0) {
+		continue;
+	    }
+	    owner[root] = fight;
+	    Arrays.fill(minimum, Integer.MAX_VALUE);
+	    Arrays.fill(reached, false);
+	    int current = root;
+	    do {
+		reached[current] = true;
+		int row = owner[current];
+		byte[] outcome = outcomes[row];
+		int delta = Integer.MAX_VALUE;
+		int closest = -1;
+		for (int fighter = 0; fighter < fighters; fighter++) {
+		    if (reached[fighter]) {
+			continue;
+		    }
+		    int reduced = costs[outcome[fighter]]
+			    - fightPotential[row] - fighterPotential[fighter];
+		    if (reduced < minimum[fighter]) {
+			minimum[fighter] = reduced;
+			from[fighter] = current;
+		    }
+		    if (minimum[fighter] < delta || minimum[fighter] == delta
+			    && owner[fighter] < 0 && owner[closest] >= 0) {
+			delta = minimum[fighter];
+			closest = fighter;
+		    }
+		}
+		for (int fighter = 0; fighter <= fighters; fighter++) {
+		    if (reached[fighter]) {
+			fightPotential[owner[fighter]] += delta;
+			fighterPotential[fighter] -= delta;
+		    } else {
+			minimum[fighter] -= delta;
+		    }
+		}
+		current = closest;
+	    } while (owner[current] >= 0);
+	    // flip the assignments along the path back to the root
+	    while (current != root) {
+		int previous = from[current];
+		owner[current] = owner[previous];
+		current = previous;
+	    }
+	}
+	for (int fighter = 0; fighter < fighters; fighter++) {
+	    if (owner[fighter] >= 0) {
+		fighterOf[owner[fighter]] = fighter;
+	    }
+	}
+    }
+}
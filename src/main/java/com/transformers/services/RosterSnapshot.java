@@ -0,0 +1,266 @@
+package com.transformers.services;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.stream.IntStream;
+
+import com.transformers.models.Transformer;
+
+// Immutable, column oriented copy of every saved transformer. Each attribute
+// lives in its own primitive array indexed by the transformer id, so a
+// battle can be set up without loading or touching any entity. Changes never
+// modify a snapshot, they produce a new one (see RosterSnapshotHolder).
+// The arrays are cut into chunks of CHUNK_SIZE ids and a new snapshot
+// shares every chunk it doesn't change, so a save copies the chunk of the
+// saved id and the array of chunks rather than every column of the roster.
+public final class RosterSnapshot {
+    static final byte ABSENT = 0;
+    static final byte AUTOBOT = 1;
+    static final byte DECEPTICON = 2;
+    // saved without a type, such a transformer fights for neither team
+    static final byte UNTYPED = 3;
+    // version of a deleted id, newer than any save of it. Ids come from a
+    // sequence and are never saved again once deleted.
+    private static final int DELETED = Integer.MAX_VALUE;
+    private static final int CHUNK_BITS = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    static final RosterSnapshot EMPTY = new RosterSnapshot(new Chunk[0], 0);
+
+    // null where no id of the chunk was ever saved or deleted
+    private final Chunk[] chunks;
+    private int size;
+
+    // the columns of CHUNK_SIZE consecutive ids
+    private static final class Chunk {
+	final byte[] types;
+	final String[] names;
+	final int[] strength;
+	final int[] intelligence;
+	final int[] speed;
+	final int[] endurance;
+	final int[] rank;
+	final int[] courage;
+	final int[] firepower;
+	final int[] skill;
+	final int[] versions;
+	// Transformer.isSpecial as saved
+	final boolean[] special;
+
+	Chunk() {
+	    this.types = new byte[CHUNK_SIZE];
+	    this.names = new String[CHUNK_SIZE];
+	    this.strength = new int[CHUNK_SIZE];
+	    this.intelligence = new int[CHUNK_SIZE];
+	    this.speed = new int[CHUNK_SIZE];
+	    this.endurance = new int[CHUNK_SIZE];
+	    this.rank = new int[CHUNK_SIZE];
+	    this.courage = new int[CHUNK_SIZE];
+	    this.firepower = new int[CHUNK_SIZE];
+	    this.skill = new int[CHUNK_SIZE];
+	    this.versions = new int[CHUNK_SIZE];
+	    this.special = new boolean[CHUNK_SIZE];
+	}
+
+	Chunk(Chunk source) {
+	    this.types = source.types.clone();
+	    this.names = source.names.clone();
+	    this.strength = source.strength.clone();
+	    this.intelligence = source.intelligence.clone();
+	    this.speed = source.speed.clone();
+	    this.endurance = source.endurance.clone();
+	    this.rank = source.rank.clone();
+	    this.courage = source.courage.clone();
+	    this.firepower = source.firepower.clone();
+	    this.skill = source.skill.clone();
+	    this.versions = source.versions.clone();
+	    this.special = source.special.clone();
+	}
+    }
+
+    private RosterSnapshot(Chunk[] chunks, int size) {
+	this.chunks = chunks;
+	this.size = size;
+    }
+
+    public static RosterSnapshot of(Collection<Transformer> transformers) {
+	return EMPTY.with(transformers, null);
+    }
+
+    // copy of this snapshot with the given transformers saved and the given
+    // ids deleted. Only the chunks of those ids are copied, once each
+    public RosterSnapshot with(Collection<Transformer> saved,
+	    Collection<Integer> deleted) {
+	int capacity = chunks.length;
+	if (saved != null) {
+	    for (Transformer transformer : saved) {
+		capacity = Math.max(capacity,
+			(transformer.getId() >>> CHUNK_BITS) + 1);
+	    }
+	}
+	RosterSnapshot copy = new RosterSnapshot(
+		Arrays.copyOf(chunks, capacity), size);
+	boolean[] copied = new boolean[capacity];
+	if (deleted != null) {
+	    for (Integer id : deleted) {
+		copy.remove(id, copied);
+	    }
+	}
+	if (saved != null) {
+	    for (Transformer transformer : saved) {
+		copy.put(transformer, copied);
+	    }
+	}
+	return copy;
+    }
+
+    // the chunk of the id, copied the first time it is changed by with
+    private Chunk writable(int id, boolean[] copied) {
+	int index = id >>> CHUNK_BITS;
+	if (!copied[index]) {
+	    Chunk chunk = chunks[index];
+	    chunks[index] = chunk == null ? new Chunk() : new Chunk(chunk);
+	    copied[index] = true;
+	}
+	return chunks[index];
+    }
+
+    private void put(Transformer transformer, boolean[] copied) {
+	int id = transformer.getId();
+	Chunk chunk = writable(id, copied);
+	int offset = id & CHUNK_MASK;
+	if (chunk.types[offset] == ABSENT) {
+	    size++;
+	}
+	chunk.types[offset] = typeOf(transformer.getType());
+	chunk.names[offset] = transformer.getName();
+	chunk.strength[offset] = transformer.getStrength();
+	chunk.intelligence[offset] = transformer.getIntelligence();
+	chunk.speed[offset] = transformer.getSpeed();
+	chunk.endurance[offset] = transformer.getEndurance();
+	chunk.rank[offset] = transformer.getRank();
+	chunk.courage[offset] = transformer.getCourage();
+	chunk.firepower[offset] = transformer.getFirepower();
+	chunk.skill[offset] = transformer.getSkill();
+	chunk.versions[offset] = versionOf(transformer);
+	chunk.special[offset] = transformer.isSpecial();
+    }
+
+    private void remove(Integer id, boolean[] copied) {
+	if (id == null || id < 0 || (id >>> CHUNK_BITS) >= chunks.length) {
+	    return;
+	}
+	Chunk chunk = writable(id, copied);
+	int offset = id & CHUNK_MASK;
+	if (chunk.types[offset] != ABSENT) {
+	    chunk.types[offset] = ABSENT;
+	    chunk.names[offset] = null;
+	    size--;
+	}
+	chunk.versions[offset] = DELETED;
+    }
+
+    // whether the snapshot already holds a newer version of the
+    // transformer, or saw it deleted
+    boolean isStale(Transformer transformer) {
+	int id = transformer.getId();
+	Chunk chunk = chunkOf(id);
+	return chunk != null
+		&& versionOf(transformer) < chunk.versions[id & CHUNK_MASK];
+    }
+
+    private static int versionOf(Transformer transformer) {
+	return transformer.getVersion() == null ? 0 : transformer.getVersion();
+    }
+
+    // the chunk of the id, null if none of its ids was ever saved
+    private Chunk chunkOf(int id) {
+	int index = id >>> CHUNK_BITS;
+	return index < chunks.length ? chunks[index] : null;
+    }
+
+    public boolean contains(Integer id) {
+	if (id == null || id < 0) {
+	    return false;
+	}
+	Chunk chunk = chunkOf(id);
+	return chunk != null && chunk.types[id & CHUNK_MASK] != ABSENT;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    // the version of the saved transformer, -1 if the id is not saved
+    int versionOf(int id) {
+	return contains(id) ? chunkOf(id).versions[id & CHUNK_MASK] : -1;
+    }
+
+    // the attributes of a saved id
+    byte type(int id) {
+	return chunks[id >>> CHUNK_BITS].types[id & CHUNK_MASK];
+    }
+
+    String name(int id) {
+	return chunks[id >>> CHUNK_BITS].names[id & CHUNK_MASK];
+    }
+
+    int rank(int id) {
+	return chunks[id >>> CHUNK_BITS].rank[id & CHUNK_MASK];
+    }
+
+    int courage(int id) {
+	return chunks[id >>> CHUNK_BITS].courage[id & CHUNK_MASK];
+    }
+
+    int strength(int id) {
+	return chunks[id >>> CHUNK_BITS].strength[id & CHUNK_MASK];
+    }
+
+    int skill(int id) {
+	return chunks[id >>> CHUNK_BITS].skill[id & CHUNK_MASK];
+    }
+
+    boolean special(int id) {
+	return chunks[id >>> CHUNK_BITS].special[id & CHUNK_MASK];
+    }
+
+    static byte typeOf(Transformer.TYPE type) {
+	if (type == Transformer.TYPE.AUTOBOT) {
+	    return AUTOBOT;
+	} else if (type == Transformer.TYPE.DECEPTICON) {
+	    return DECEPTICON;
+	}
+	return UNTYPED;
+    }
+
+    int overallRating(int id) {
+	Chunk chunk = chunks[id >>> CHUNK_BITS];
+	int offset = id & CHUNK_MASK;
+	return chunk.strength[offset] + chunk.intelligence[offset]
+		+ chunk.speed[offset] + chunk.endurance[offset]
+		+ chunk.firepower[offset];
+    }
+
+    // the saved ids of the given type in ascending order
+    int[] idsOfType(byte type) {
+	IntStream.Builder ids = IntStream.builder();
+	for (int index = 0; index < chunks.length; index++) {
+	    Chunk chunk = chunks[index];
+	    for (int offset = 0; chunk != null && offset < CHUNK_SIZE;
+		    offset++) {
+		if (chunk.types[offset] == type) {
+		    ids.add(index << CHUNK_BITS | offset);
+		}
+	    }
+	}
+	return ids.build().toArray();
+    }
+
+    // the distinct saved ids among the given ones, in ascending order
+    int[] presentIds(Collection<Integer> ids) {
+	return ids.stream().filter(this::contains).mapToInt(Integer::intValue)
+		.sorted().distinct().toArray();
+    }
+}
@@ -0,0 +1,101 @@
+package com.transformers.services;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.transformers.TransformerProperties;
+import com.transformers.models.Transformer;
+import com.transformers.repository.TransformerRepository;
+
+// Keeps the current RosterSnapshot. Reads are a volatile read; the snapshot
+// is loaded from the repository on first use and then replaced copy-on-write
+// by TransformerService every time a change to the roster commits.
+// Every committed change also bumps the roster version, which tells clients
+// polling the roster whether anything changed since their last look.
+// The Leaderboard is kept up to date with the same changes.
+@Component
+public class RosterSnapshotHolder {
+    private final TransformerRepository repository;
+    private final Object lock = new Object();
+    private volatile RosterSnapshot snapshot;
+    // the counter starts over with every run of the application, the epoch
+    // keeps the versions of different runs apart
+    private final String epoch = Long.toString(System.currentTimeMillis(),
+	    Character.MAX_RADIX);
+    private final AtomicLong version = new AtomicLong();
+    private final Leaderboard leaderboard;
+
+    public RosterSnapshotHolder(TransformerRepository repository) {
+	this(repository, new TransformerProperties());
+    }
+
+    @Autowired
+    public RosterSnapshotHolder(TransformerRepository repository,
+	    TransformerProperties properties) {
+	this.repository = repository;
+	this.leaderboard = new Leaderboard(repository,
+		properties.getLeaderboard().getSize());
+    }
+
+    public RosterSnapshot current() {
+	RosterSnapshot current = snapshot;
+	if (current == null) {
+	    synchronized (lock) {
+		current = snapshot;
+		if (current == null) {
+		    current = RosterSnapshot.of(repository.findAll());
+		    snapshot = current;
+		}
+	    }
+	}
+	return current;
+    }
+
+    // changes to the roster committed so far, unique across runs
+    public String version() {
+	return epoch + "-" + version.get();
+    }
+
+    Leaderboard leaderboard() {
+	return leaderboard;
+    }
+
+    public void saved(Transformer transformer) {
+	afterCommit(Collections.singletonList(transformer), null);
+    }
+
+    public void deleted(Integer id) {
+	afterCommit(null, Collections.singletonList(id));
+    }
+
+    public void afterCommit(Collection<Transformer> saved,
+	    Collection<Integer> deleted) {
+	Transactions.afterCommit(() -> apply(saved, deleted));
+    }
+
+    private void apply(Collection<Transformer> saved,
+	    Collection<Integer> deleted) {
+	synchronized (lock) {
+	    // not loaded yet, the first read will see the change in the
+	    // database
+	    if (snapshot != null) {
+		// commits of the same transformer can finish in either order,
+		// an older version never replaces a newer one
+		if (saved != null) {
+		    RosterSnapshot current = snapshot;
+		    saved = saved.stream()
+			    .filter(saving -> !current.isStale(saving))
+			    .collect(Collectors.toList());
+		}
+		snapshot = snapshot.with(saved, deleted);
+	    }
+	    leaderboard.apply(saved, deleted);
+	    version.incrementAndGet();
+	}
+    }
+}
@@ -0,0 +1,174 @@
+package com.transformers.services;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import com.transformers.models.Transformer;
+
+// Monte Carlo odds of a lineup: every simulation adds a random sample of
+// transformers from the pool to the given ids and fights the battle by the
+// usual rules. The simulations are split into chunks fought in parallel on
+// the fork-join pool of the BattleExecutor. Every chunk draws from its own
+// SplittableRandom, split off the seed in chunk order, so the same seed
+// gives the same odds however the chunks are scheduled.
+public final class Simulation {
+    // simulations per chunk
+    static final int CHUNK_SIMULATIONS = 1 << 12;
+    // z of the 95% confidence intervals
+    private static final double Z = 1.959964;
+
+    // index of each outcome in the tallies
+    private static final int AUTOBOTS_WON = 0;
+    private static final int DECEPTICONS_WON = 1;
+    private static final int NO_WINNER = 2;
+    private static final int DESTROYED = 3;
+
+    private Simulation() {
+    }
+
+    // the lineup is the saved ids among the given ones. Each simulated
+    // battle adds that many transformers of the given type (of either type
+    // without one) that are not in the lineup.
+    public static HashMap<String, Object> run(BattleRules rules,
+	    RosterSnapshot roster, Collection<Integer> ids,
+	    Transformer.TYPE type, int sampled, int simulations, long seed) {
+	int[] lineup = roster.presentIds(ids);
+	int[] pool = pool(roster, type, lineup);
+	if (sampled < 0 || sampled > pool.length) {
+	    return error("between 0 and " + pool.length
+		    + " transformers can be sampled");
+	}
+	if (lineup.length + sampled < 2) {
+	    return error("2 or more valid ids required");
+	}
+
+	int chunks = (simulations + CHUNK_SIMULATIONS - 1) / CHUNK_SIMULATIONS;
+	SplittableRandom root = new SplittableRandom(seed);
+	SplittableRandom[] randoms = new SplittableRandom[chunks];
+	for (int chunk = 0; chunk < chunks; chunk++) {
+	    randoms[chunk] = root.split();
+	}
+	long[][] tallies = new long[chunks][];
+	IntStream.range(0, chunks).parallel().forEach(chunk -> {
+	    int end = Math.min(simulations, (chunk + 1) * CHUNK_SIMULATIONS);
+	    tallies[chunk] = simulate(rules, roster, lineup,
+		    sampled == 0 ? pool : pool.clone(), sampled,
+		    end - chunk * CHUNK_SIMULATIONS, randoms[chunk]);
+	});
+	long[] outcomes = new long[4];
+	for (long[] tally : tallies) {
+	    for (int outcome = 0; outcome < outcomes.length; outcome++) {
+		outcomes[outcome] += tally[outcome];
+	    }
+	}
+
+	HashMap<String, Object> res = new HashMap<>();
+	res.put("Simulations", simulations);
+	res.put("Seed", seed);
+	res.put("AutobotsWin", odds(outcomes[AUTOBOTS_WON], simulations));
+	res.put("DecepticonsWin", odds(outcomes[DECEPTICONS_WON], simulations));
+	res.put("NoWinner", odds(outcomes[NO_WINNER], simulations));
+	res.put("Destroyed", odds(outcomes[DESTROYED], simulations));
+	return res;
+    }
+
+    // the saved transformers that can be sampled, in ascending order
+    private static int[] pool(RosterSnapshot roster, Transformer.TYPE type,
+	    int[] lineup) {
+	int[] candidates;
+	if (type != null) {
+	    candidates = roster.idsOfType(RosterSnapshot.typeOf(type));
+	} else {
+	    candidates = IntStream.concat(
+		    Arrays.stream(roster.idsOfType(RosterSnapshot.AUTOBOT)),
+		    Arrays.stream(roster.idsOfType(RosterSnapshot.DECEPTICON)))
+		    .sorted().toArray();
+	}
+	return Arrays.stream(candidates)
+		.filter(id -> Arrays.binarySearch(lineup, id) < 0).toArray();
+    }
+
+    private static long[] simulate(BattleRules rules, RosterSnapshot roster,
+	    int[] lineup, int[] pool, int sampled, int simulations,
+	    SplittableRandom random) {
+	long[] tally = new long[4];
+	int[] ids = Arrays.copyOf(lineup, lineup.length + sampled);
+	for (int simulation = 0; simulation < simulations; simulation++) {
+	    // the first sampled entries of a partial Fisher-Yates shuffle. It
+	    // picks a uniform sample whatever order the pool was left in.
+	    for (int index = 0; index < sampled; index++) {
+		int pick = index + random.nextInt(pool.length - index);
+		int id = pool[pick];
+		pool[pick] = pool[index];
+		pool[index] = id;
+		ids[lineup.length + index] = id;
+	    }
+	    // the squads take the ids in ascending order
+	    Arrays.sort(ids, lineup.length, ids.length);
+	    tally[outcome(rules, roster, merge(ids, lineup.length))]++;
+	}
+	return tally;
+    }
+
+    // the ids with both sorted runs merged into one
+    private static int[] merge(int[] ids, int split) {
+	int[] merged = new int[ids.length];
+	int left = 0;
+	int right = split;
+	for (int index = 0; index < merged.length; index++) {
+	    if (right == ids.length
+		    || left < split && ids[left] < ids[right]) {
+		merged[index] = ids[left++];
+	    } else {
+		merged[index] = ids[right++];
+	    }
+	}
+	return merged;
+    }
+
+    private static int outcome(BattleRules rules, RosterSnapshot roster,
+	    int[] ids) {
+	Squad autobots = Squad.of(BattleEngine.AUTOBOTS, roster, ids,
+		RosterSnapshot.AUTOBOT);
+	Squad decepticons = Squad.of(BattleEngine.DECEPTICONS, roster, ids,
+		RosterSnapshot.DECEPTICON);
+	BattleScore score = new BattleScore();
+	BattleEngine.fight(rules, autobots, decepticons, score);
+	if (score.destroyed) {
+	    return DESTROYED;
+	}
+	Squad winner = BattleEngine.winner(autobots, decepticons, score);
+	if (winner == null) {
+	    return NO_WINNER;
+	}
+	return winner == autobots ? AUTOBOTS_WON : DECEPTICONS_WON;
+    }
+
+    // the share of the simulations with an outcome and its 95% Wilson score
+    // interval, which stays within 0 and 1 even for rare outcomes
+    private static HashMap<String, Object> odds(long count, int simulations) {
+	double n = simulations;
+	double p = count / n;
+	double z2 = Z * Z;
+	double denominator = 1 + z2 / n;
+	double center = (p + z2 / (2 * n)) / denominator;
+	double margin = Z * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n))
+		/ denominator;
+	HashMap<String, Object> res = new HashMap<>();
+	res.put("Count", count);
+	res.put("Probability", p);
+	// exact at the ends, where the difference only leaves rounding errors
+	res.put("Low", count == 0 ? 0.0 : center - margin);
+	res.put("High", count == simulations ? 1.0 : center + margin);
+	return res;
+    }
+
+    private static HashMap<String, Object> error(String message) {
+	HashMap<String, Object> res = new HashMap<>();
+	res.put("Error", message);
+	return res;
+    }
+}
@@ -0,0 +1,58 @@
+package com.transformers.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Concurrent calls with the same key share one computation: the first
+// caller runs it on its own thread and the callers that come in while it
+// is running wait for its result, or get the exception it threw. A key is
+// only kept while its computation is in flight; the caller that ran it
+// takes it out with a compare and remove, so no lock is held and a newer
+// flight of the same key is never dropped by an older one.
+final class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> flights =
+	    new ConcurrentHashMap<>();
+
+    V run(K key, Supplier<V> computation) {
+	CompletableFuture<V> flight = new CompletableFuture<>();
+	CompletableFuture<V> running = flights.putIfAbsent(key, flight);
+	if (running != null) {
+	    return join(running);
+	}
+	try {
+	    V value = computation.get();
+	    flight.complete(value);
+	    return value;
+	} catch (RuntimeException | Error e) {
+	    flight.completeExceptionally(e);
+	    throw e;
+	} finally {
+	    flights.remove(key, flight);
+	}
+    }
+
+    // the next call with the key starts a computation of its own instead
+    // of joining the one in flight, which may have read data older than a
+    // change that was just committed
+    void forget(K key) {
+	flights.remove(key);
+    }
+
+    // the callers that joined get the exception of the one that ran the
+    // computation, not a CompletionException
+    private static <V> V join(CompletableFuture<V> flight) {
+	try {
+	    return flight.join();
+	} catch (CompletionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof RuntimeException) {
+		throw (RuntimeException) cause;
+	    } else if (cause instanceof Error) {
+		throw (Error) cause;
+	    }
+	    throw e;
+	}
+    }
+}
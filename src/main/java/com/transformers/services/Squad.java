@@ -0,0 +1,176 @@
+package com.transformers.services;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.transformers.models.Transformer;
+
+// One side of a battle: the fighters in the order they fight (sorted by
+// rank) with the attributes used by the battle rules copied into primitive
+// arrays, so that the fights never go through the entities or box a value.
+public final class Squad {
+    // type filter of a squad that takes the transformers of any type
+    private static final byte ANY_TYPE = -1;
+    // widest range of ranks that is bucket sorted, see rankOrder
+    private static final int MAX_RANK_BUCKETS = 1024;
+
+    final String teamName;
+    final int[] ids;
+    final String[] names;
+    final int[] courage;
+    final int[] strength;
+    final int[] skill;
+    final int[] rating;
+    // fighters covered by the special rule of their type (see SpecialRoles)
+    final boolean[] special;
+
+    Squad(String teamName, int size) {
+	this.teamName = teamName;
+	this.ids = new int[size];
+	this.names = new String[size];
+	this.courage = new int[size];
+	this.strength = new int[size];
+	this.skill = new int[size];
+	this.rating = new int[size];
+	this.special = new boolean[size];
+    }
+
+    static Squad of(String teamName, List<Transformer> fighters) {
+	Squad squad = new Squad(teamName, fighters.size());
+	for (int index = 0; index < fighters.size(); index++) {
+	    Transformer fighter = fighters.get(index);
+	    squad.ids[index] = fighter.getId();
+	    squad.names[index] = fighter.getName();
+	    squad.courage[index] = fighter.getCourage();
+	    squad.strength[index] = fighter.getStrength();
+	    squad.skill[index] = fighter.getSkill();
+	    squad.rating[index] = fighter.getOverallRating();
+	    squad.special[index] = fighter.isSpecial();
+	}
+	return squad;
+    }
+
+    // the squad of the given type among the saved ids of a snapshot, which
+    // are in ascending order. The fighters are sorted by rank, transformers
+    // with the same rank by id.
+    static Squad of(String teamName, RosterSnapshot roster, int[] ids,
+	    byte type) {
+	int[] members = new int[ids.length];
+	int[] ranks = new int[ids.length];
+	int size = 0;
+	for (int id : ids) {
+	    if (type == ANY_TYPE || roster.type(id) == type) {
+		members[size] = id;
+		ranks[size++] = roster.rank(id);
+	    }
+	}
+	int[] order = rankOrder(ranks, size);
+
+	Squad squad = new Squad(teamName, size);
+	for (int index = 0; index < size; index++) {
+	    int id = members[order[index]];
+	    squad.ids[index] = id;
+	    squad.names[index] = roster.name(id);
+	    squad.courage[index] = roster.courage(id);
+	    squad.strength[index] = roster.strength(id);
+	    squad.skill[index] = roster.skill(id);
+	    squad.rating[index] = roster.overallRating(id);
+	    squad.special[index] = roster.special(id);
+	}
+	return squad;
+    }
+
+    // a tournament team: every saved transformer among the ids fights for
+    // it, whatever its type, and keeps the special role of its type
+    static Squad team(String teamName, RosterSnapshot roster, int[] ids) {
+	return of(teamName, roster, ids, ANY_TYPE);
+    }
+
+    // the same fighters, the one at order[index] fighting at index
+    Squad reordered(int[] order) {
+	Squad squad = new Squad(teamName, order.length);
+	for (int index = 0; index < order.length; index++) {
+	    int from = order[index];
+	    squad.ids[index] = ids[from];
+	    squad.names[index] = names[from];
+	    squad.courage[index] = courage[from];
+	    squad.strength[index] = strength[from];
+	    squad.skill[index] = skill[from];
+	    squad.rating[index] = rating[from];
+	    squad.special[index] = special[from];
+	}
+	return squad;
+    }
+
+    // the positions 0 to size - 1 of the ranks ordered by rank, positions
+    // with the same rank keep their order. Ranks are validated to be within
+    // 1 and 10, so this is a counting sort in linear time; ranks spread over
+    // a wider range are sorted by comparison instead.
+    static int[] rankOrder(int[] ranks, int size) {
+	int[] order = new int[size];
+	if (size == 0) {
+	    return order;
+	}
+	int min = ranks[0];
+	int max = ranks[0];
+	for (int index = 1; index < size; index++) {
+	    min = Math.min(min, ranks[index]);
+	    max = Math.max(max, ranks[index]);
+	}
+	if ((long) max - min >= MAX_RANK_BUCKETS) {
+	    // ranks in the upper half, positions in the lower half of the key
+	    long[] keys = new long[size];
+	    for (int index = 0; index < size; index++) {
+		keys[index] = ((long) ranks[index] << 32) | index;
+	    }
+	    Arrays.sort(keys);
+	    for (int index = 0; index < size; index++) {
+		order[index] = (int) keys[index];
+	    }
+	    return order;
+	}
+	// the first position of every rank in the order
+	int[] starts = new int[max - min + 2];
+	for (int index = 0; index < size; index++) {
+	    starts[ranks[index] - min + 1]++;
+	}
+	for (int bucket = 1; bucket < starts.length; bucket++) {
+	    starts[bucket] += starts[bucket - 1];
+	}
+	for (int index = 0; index < size; index++) {
+	    order[starts[ranks[index] - min]++] = index;
+	}
+	return order;
+    }
+
+    public String getTeamName() {
+	return teamName;
+    }
+
+    public int size() {
+	return names.length;
+    }
+
+    // index of the first fighter with the highest overall rating or -1 if
+    // the squad is empty
+    int strongest() {
+	int strongest = -1;
+	for (int index = 0; index < rating.length; index++) {
+	    if (strongest < 0 || rating[index] > rating[strongest]) {
+		strongest = index;
+	    }
+	}
+	return strongest;
+    }
+
+    String survivorNames(int startingIndex) {
+	StringBuilder acc = new StringBuilder("Survivors from losing team (")
+		.append(teamName).append("): ");
+	// since the squad is sorted, skipped transformers will be from the
+	// end of the squad
+	for (int index = startingIndex; index < names.length; index++) {
+	    acc.append(names[index]).append(' ');
+	}
+	return acc.toString().trim();
+    }
+}
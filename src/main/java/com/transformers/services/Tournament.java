@@ -0,0 +1,256 @@
+package com.transformers.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Battles between many named teams. Every team is set up once from the
+// roster snapshot and then fights its matches by the given battle rules,
+// the team listed first in a match taking the place of the autobots. The
+// matches of a round don't depend on each other and are fought in parallel
+// on the fork-join pool of the BattleExecutor.
+public final class Tournament {
+    public enum MODE {
+	// every team fights every other team once
+	ROUND_ROBIN,
+	// the winner of each match goes on to the next round until one team
+	// is left
+	SINGLE_ELIMINATION
+    }
+
+    static final int POINTS_FOR_A_WIN = 3;
+    static final int POINTS_FOR_A_DRAW = 1;
+
+    private final BattleRules rules;
+    private final Squad[] teams;
+    private final Standing[] standings;
+    private final List<Match> matches = new ArrayList<>();
+
+    private Tournament(BattleRules rules, Squad[] teams) {
+	this.rules = rules;
+	this.teams = teams;
+	this.standings = new Standing[teams.length];
+	for (int team = 0; team < teams.length; team++) {
+	    standings[team] = new Standing(team);
+	}
+    }
+
+    // the teams in seed order, each with the ids of its transformers. Ids
+    // that are not saved are ignored.
+    public static HashMap<String, Object> play(BattleRules rules,
+	    RosterSnapshot roster, Map<String, List<Integer>> teams,
+	    MODE mode) {
+	if (teams.size() < 2) {
+	    HashMap<String, Object> res = new HashMap<>();
+	    res.put("Error", "2 or more teams required");
+	    return res;
+	}
+	Squad[] squads = teams.entrySet().stream()
+		.map(team -> Squad.team(team.getKey(), roster,
+			roster.presentIds(team.getValue() == null
+				? Collections.<Integer>emptyList()
+				: team.getValue())))
+		.toArray(Squad[]::new);
+	Tournament tournament = new Tournament(rules, squads);
+	if (mode == MODE.SINGLE_ELIMINATION) {
+	    tournament.singleElimination();
+	} else {
+	    tournament.roundRobin();
+	}
+	return tournament.result(mode);
+    }
+
+    // circle method: one team stays in place and the others rotate, so that
+    // every round has each team in at most one match. As in the Berger
+    // tables the team in place is home in the odd rounds and away in the
+    // even ones; the home team fights as the autobots, whose margins are
+    // checked first, and no team should keep that side.
+    private void roundRobin() {
+	int slots = teams.length + teams.length % 2;
+	int[] circle = IntStream.range(0, slots).toArray();
+	for (int round = 1; round < slots; round++) {
+	    List<int[]> pairings = new ArrayList<>();
+	    for (int index = 0; index < slots / 2; index++) {
+		int home = circle[index];
+		int away = circle[slots - 1 - index];
+		if (index == 0 && round % 2 == 0) {
+		    home = away;
+		    away = circle[0];
+		}
+		// the extra slot of an odd number of teams is a day off
+		if (home < teams.length && away < teams.length) {
+		    pairings.add(new int[] { home, away });
+		}
+	    }
+	    fight(round, pairings);
+	    // keep the first team in place and rotate the rest by one
+	    int last = circle[slots - 1];
+	    System.arraycopy(circle, 1, circle, 2, slots - 2);
+	    circle[1] = last;
+	}
+    }
+
+    // the teams are paired in seed order, a team left without an opponent
+    // goes through to the next round. A drawn match is won by the team that
+    // won more battles and then by the better seed.
+    private void singleElimination() {
+	int[] remaining = IntStream.range(0, teams.length).toArray();
+	for (int round = 1; remaining.length > 1; round++) {
+	    List<int[]> pairings = new ArrayList<>();
+	    for (int index = 0; index + 1 < remaining.length; index += 2) {
+		pairings.add(new int[] { remaining[index],
+			remaining[index + 1] });
+	    }
+	    Match[] played = fight(round, pairings);
+
+	    int[] next = new int[(remaining.length + 1) / 2];
+	    for (int index = 0; index < played.length; index++) {
+		next[index] = played[index].advancing();
+	    }
+	    if (remaining.length % 2 == 1) {
+		next[next.length - 1] = remaining[remaining.length - 1];
+	    }
+	    for (int team : remaining) {
+		standings[team].reached = round;
+	    }
+	    remaining = next;
+	}
+	if (remaining.length == 1) {
+	    standings[remaining[0]].reached++;
+	}
+    }
+
+    private Match[] fight(int round, List<int[]> pairings) {
+	Match[] played = new Match[pairings.size()];
+	IntStream.range(0, played.length).parallel().forEach(index -> {
+	    int[] pairing = pairings.get(index);
+	    played[index] = new Match(round, pairing[0], pairing[1]);
+	});
+	// standings are only updated here, by one thread
+	for (Match match : played) {
+	    standings[match.home].record(match.score.autobotWins,
+		    match.score.decepticonWins, match.winner);
+	    standings[match.away].record(match.score.decepticonWins,
+		    match.score.autobotWins, match.winner);
+	    matches.add(match);
+	}
+	return played;
+    }
+
+    private HashMap<String, Object> result(MODE mode) {
+	Comparator<Standing> order = Comparator
+		.comparingInt((Standing standing) -> standing.points)
+		.thenComparingInt(standing -> standing.battlesWon
+			- standing.battlesLost)
+		.reversed().thenComparingInt(standing -> standing.team);
+	if (mode == MODE.SINGLE_ELIMINATION) {
+	    order = Comparator
+		    .comparingInt((Standing standing) -> standing.reached)
+		    .reversed().thenComparing(order);
+	}
+	HashMap<String, Object> res = new HashMap<>();
+	res.put("Standings", Arrays.stream(standings).sorted(order)
+		.map(Standing::toMap).collect(Collectors.toList()));
+	res.put("Matches", matches.stream().map(Match::toMap)
+		.collect(Collectors.toList()));
+	return res;
+    }
+
+    private final class Match {
+	final int round;
+	final int home;
+	final int away;
+	final BattleScore score = new BattleScore();
+	// index of the winning team, -1 for a draw
+	final int winner;
+
+	Match(int round, int home, int away) {
+	    this.round = round;
+	    this.home = home;
+	    this.away = away;
+	    BattleEngine.fight(rules, teams[home], teams[away], score);
+	    Squad squad = BattleEngine.winner(teams[home], teams[away], score);
+	    this.winner = squad == null ? -1
+		    : squad == teams[home] ? home : away;
+	}
+
+	// the team that goes through to the next round of an elimination
+	int advancing() {
+	    if (winner >= 0) {
+		return winner;
+	    } else if (score.decepticonWins > score.autobotWins) {
+		return away;
+	    }
+	    return home;
+	}
+
+	HashMap<String, Object> toMap() {
+	    HashMap<String, Object> res = new HashMap<>();
+	    res.put("Round", round);
+	    res.put("Teams", Arrays.asList(teams[home].teamName,
+		    teams[away].teamName));
+	    res.put("Score", score.autobotWins + "-" + score.decepticonWins);
+	    res.put("NumberOfBattles", score.battles + " battle");
+	    if (score.destroyed) {
+		res.put("Winner", "Everyone was destroyed");
+	    } else if (winner < 0) {
+		res.put("Winner", "Draw");
+	    } else {
+		res.put("Winner", teams[winner].teamName);
+	    }
+	    return res;
+	}
+    }
+
+    private final class Standing {
+	final int team;
+	int played;
+	int won;
+	int drawn;
+	int lost;
+	int points;
+	int battlesWon;
+	int battlesLost;
+	// last elimination round the team took part in, one more for the
+	// champion
+	int reached;
+
+	Standing(int team) {
+	    this.team = team;
+	}
+
+	void record(int battlesWon, int battlesLost, int winner) {
+	    played++;
+	    this.battlesWon += battlesWon;
+	    this.battlesLost += battlesLost;
+	    if (winner < 0) {
+		drawn++;
+		points += POINTS_FOR_A_DRAW;
+	    } else if (winner == team) {
+		won++;
+		points += POINTS_FOR_A_WIN;
+	    } else {
+		lost++;
+	    }
+	}
+
+	HashMap<String, Object> toMap() {
+	    HashMap<String, Object> res = new HashMap<>();
+	    res.put("Team", teams[team].teamName);
+	    res.put("Played", played);
+	    res.put("Won", won);
+	    res.put("Drawn", drawn);
+	    res.put("Lost", lost);
+	    res.put("Points", points);
+	    res.put("BattlesWon", battlesWon);
+	    res.put("BattlesLost", battlesLost);
+	    return res;
+	}
+    }
+}
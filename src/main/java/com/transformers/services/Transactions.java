@@ -0,0 +1,27 @@
+package com.transformers.services;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+final class Transactions {
+
+    private Transactions() {
+    }
+
+    // runs the action once the current transaction commits, or right away
+    // when there is no transaction (the repository methods commit on their
+    // own)
+    static void afterCommit(Runnable action) {
+	if (TransactionSynchronizationManager.isSynchronizationActive()) {
+	    TransactionSynchronizationManager.registerSynchronization(
+		    new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+			    action.run();
+			}
+		    });
+	} else {
+	    action.run();
+	}
+    }
+}
@@ -0,0 +1,65 @@
+package com.transformers.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.transformers.models.Transformer;
+import com.transformers.repository.TransformerRepository;
+
+// Writes the whole roster as newline delimited JSON, one transformer per
+// line. The rows come from a database cursor and every entity is detached
+// once written, so neither the persistence context nor the response grow
+// with the size of the table.
+@Component
+public class TransformerExporter {
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+
+    private final TransformerRepository repository;
+    private final EntityManager entityManager;
+    private final ObjectMapper mapper;
+
+    public TransformerExporter(TransformerRepository repository,
+	    EntityManager entityManager, ObjectMapper mapper) {
+	this.repository = repository;
+	this.entityManager = entityManager;
+	this.mapper = mapper;
+    }
+
+    @Transactional(readOnly = true)
+    public void export(OutputStream out) throws IOException {
+	// the servlet container buffers and flushes the output, Jackson must
+	// neither flush after every row nor close the response stream
+	ObjectWriter writer = mapper.writerFor(Transformer.class)
+		.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	try (Stream<Transformer> transformers = repository.streamAll();
+		JsonGenerator generator = mapper.getFactory()
+			.createGenerator(out)
+			.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+			.setRootValueSeparator(null)) {
+	    Iterator<Transformer> rows = transformers.iterator();
+	    boolean first = true;
+	    while (rows.hasNext()) {
+		Transformer transformer = rows.next();
+		writer.writeValue(generator, transformer);
+		generator.writeRaw('\n');
+		entityManager.detach(transformer);
+		if (first) {
+		    // send the headers and the first row right away
+		    generator.flush();
+		    first = false;
+		}
+	    }
+	}
+    }
+}
@@ -0,0 +1,203 @@
+package com.transformers.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.transformers.CborConfig;
+import com.transformers.TransformerProperties;
+import com.transformers.models.Transformer;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Loads many transformers in one request. The body is read one row at a
+// time, either from a JSON array, from newline delimited JSON or from CBOR
+// (an array or one transformer after the other), and the rows are
+// validated and inserted in chunks, each chunk in its own transaction and
+// with batched insert statements. Rows that can't be read, are not valid or
+// are refused by the database are reported back and skipped, the others
+// are saved.
+@Slf4j
+@Component
+public class TransformerImporter {
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactions;
+    private final Validator validator;
+    private final ObjectMapper mapper;
+    private final ObjectMapper cborMapper;
+    private final RosterSnapshotHolder roster;
+    private final TransformerProperties properties;
+
+    public TransformerImporter(EntityManager entityManager,
+	    PlatformTransactionManager transactionManager, Validator validator,
+	    ObjectMapper mapper, CborConfig cbor, RosterSnapshotHolder roster,
+	    TransformerProperties properties) {
+	this.entityManager = entityManager;
+	this.transactions = new TransactionTemplate(transactionManager);
+	this.validator = validator;
+	this.mapper = mapper;
+	this.cborMapper = cbor.getObjectMapper();
+	this.roster = roster;
+	this.properties = properties;
+    }
+
+    // the response holds the number of saved and failed rows and one error
+    // per failed row, up to transformers.bulk.max-errors of them. Rows are
+    // numbered from 0 in the order they were sent.
+    public HashMap<String, Object> importAll(InputStream in,
+	    MediaType contentType) throws IOException {
+	ObjectMapper reader = CborConfig.CBOR.isCompatibleWith(contentType)
+		? cborMapper : mapper;
+	int chunkSize = properties.getBulk().getChunkSize();
+	Errors errors = new Errors(properties.getBulk().getMaxErrors());
+	List<Transformer> chunk = new ArrayList<>(chunkSize);
+	// the row number of every transformer in the chunk
+	List<Integer> chunkRows = new ArrayList<>(chunkSize);
+	int imported = 0;
+	int row = 0;
+	try (MappingIterator<Transformer> rows = reader
+		.readerFor(Transformer.class).readValues(in)) {
+	    while (true) {
+		try {
+		    if (!rows.hasNextValue()) {
+			break;
+		    }
+		    Transformer transformer = rows.nextValue();
+		    String error = validate(transformer);
+		    if (error == null) {
+			chunk.add(transformer);
+			chunkRows.add(row);
+		    } else {
+			errors.add(row, error);
+		    }
+		} catch (JsonParseException e) {
+		    // not JSON anymore, there is no next row to go on with
+		    errors.add(row, e.getOriginalMessage());
+		    break;
+		} catch (JsonMappingException e) {
+		    // the rest of the row is skipped, the next one is read
+		    errors.add(row, e.getOriginalMessage());
+		}
+		row++;
+		if (chunk.size() == chunkSize) {
+		    imported += insert(chunk, chunkRows, errors);
+		}
+	    }
+	}
+	if (!chunk.isEmpty()) {
+	    imported += insert(chunk, chunkRows, errors);
+	}
+
+	HashMap<String, Object> res = new HashMap<>();
+	res.put("Imported", imported);
+	res.put("Failed", errors.count);
+	res.put("Errors", errors.listed);
+	return res;
+    }
+
+    private String validate(Transformer transformer) {
+	Set<ConstraintViolation<Transformer>> violations = validator
+		.validate(transformer);
+	if (violations.isEmpty()) {
+	    return null;
+	}
+	return violations.stream()
+		.map(violation -> violation.getPropertyPath() + " "
+			+ violation.getMessage())
+		.sorted().collect(Collectors.joining(", "));
+    }
+
+    // inserts the chunk in one transaction and empties it. The inserts are
+    // sent to the database in batches (hibernate.jdbc.batch_size) and the
+    // ids come from a pooled sequence, so a chunk needs very few round
+    // trips. If the chunk can't be saved its rows are inserted again one at
+    // a time, so that only the rows the database refuses fail.
+    private int insert(List<Transformer> chunk, List<Integer> chunkRows,
+	    Errors errors) {
+	try {
+	    return save(chunk);
+	} catch (RuntimeException e) {
+	    log.warn("Could not insert a chunk of " + chunk.size()
+		    + " transformers, inserting them one at a time", e);
+	    int imported = 0;
+	    for (int index = 0; index < chunk.size(); index++) {
+		try {
+		    imported += save(chunk.subList(index, index + 1));
+		} catch (RuntimeException rowFailure) {
+		    errors.add(chunkRows.get(index),
+			    "not saved: " + rowFailure.getMessage());
+		}
+	    }
+	    return imported;
+	} finally {
+	    chunk.clear();
+	    chunkRows.clear();
+	}
+    }
+
+    // saves the rows in one transaction, none of them if it fails
+    private int save(List<Transformer> rows) {
+	List<Transformer> saved = new ArrayList<>(rows.size());
+	transactions.execute(status -> {
+	    for (Transformer row : rows) {
+		// the ids are always generated
+		Transformer transformer = new Transformer(0, row.getName(),
+			row.getStrength(), row.getIntelligence(),
+			row.getSpeed(), row.getEndurance(), row.getRank(),
+			row.getCourage(), row.getFirepower(), row.getSkill(),
+			row.getType());
+		entityManager.persist(transformer);
+		saved.add(transformer);
+	    }
+	    entityManager.flush();
+	    // keeps the persistence context from growing chunk after chunk
+	    entityManager.clear();
+	    roster.afterCommit(saved, null);
+	    return null;
+	});
+	return saved.size();
+    }
+
+    // the failed rows of an import. All of them are counted but only the
+    // first max are listed, a load of bad rows keeps a bounded response.
+    private static final class Errors {
+	private final int max;
+	private final List<HashMap<String, Object>> listed = new ArrayList<>();
+	private int count;
+
+	Errors(int max) {
+	    this.max = max;
+	}
+
+	void add(int row, String message) {
+	    count++;
+	    if (listed.size() < max) {
+		listed.add(error(row, message));
+	    }
+	}
+    }
+
+    private static HashMap<String, Object> error(int row, String message) {
+	HashMap<String, Object> error = new HashMap<>();
+	error.put("Row", row);
+	error.put("Error", message);
+	return error;
+    }
+}
@@ -0,0 +1,23 @@
+package com.transformers.services;
+
+import java.util.Map;
+
+import org.springframework.hateoas.core.Relation;
+
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+
+// Some of the fields of a transformer, in the order they were asked for.
+// Embedded under the same name as the full transformers.
+@Relation(collectionRelation = "transformerList")
+public class TransformerProjection {
+    private final Map<String, Object> fields;
+
+    public TransformerProjection(Map<String, Object> fields) {
+	this.fields = fields;
+    }
+
+    @JsonAnyGetter
+    public Map<String, Object> getFields() {
+	return fields;
+    }
+}
@@ -1,25 +1,243 @@
 package com.transformers.services;
 
 import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.data.domain.Slice;
+import org.springframework.hateoas.Link;
 import org.springframework.hateoas.Resource;
 import org.springframework.hateoas.ResourceAssembler;
+import org.springframework.hateoas.Resources;
 import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import com.transformers.controller.TransformerController;
+import com.transformers.exceptions.UnknownFieldException;
 import com.transformers.models.Transformer;
 
 @Component
 public class TransformerResourceAssembler
 	implements ResourceAssembler<Transformer, Resource<Transformer>> {
+    // the paths of the links, read once from the controller mappings (POST
+    // and GET /transformers share theirs). The self link is split around
+    // its {id} so that expanding it is a string concatenation; only the
+    // base uri of the request is left to resolve.
+    private static final String TRANSFORMERS_PATH = mapping(
+	    "saveTransformer", Transformer.class);
+    private static final String[] TRANSFORMER_PATH = mapping(
+	    "findTransformerById", Integer.class, WebRequest.class,
+	    HttpServletResponse.class)
+	    .split("\\{id\\}", -1);
+    private static final String TOP_PATH = mapping("getTopTransformers",
+	    Integer.class, Transformer.TYPE.class);
+    private static final String SEARCH_PATH = mapping("searchTransformers",
+	    Integer.class, Integer.class, Transformer.TYPE.class, Map.class);
+
+    // the fields of a transformer a list can be projected to, see
+    // toProjection
+    private static final Map<String, Function<Transformer, Object>> FIELDS =
+	    new LinkedHashMap<>();
+    static {
+	FIELDS.put("id", Transformer::getId);
+	FIELDS.put("name", Transformer::getName);
+	FIELDS.put("strength", Transformer::getStrength);
+	FIELDS.put("intelligence", Transformer::getIntelligence);
+	FIELDS.put("speed", Transformer::getSpeed);
+	FIELDS.put("endurance", Transformer::getEndurance);
+	FIELDS.put("rank", Transformer::getRank);
+	FIELDS.put("courage", Transformer::getCourage);
+	FIELDS.put("firepower", Transformer::getFirepower);
+	FIELDS.put("skill", Transformer::getSkill);
+	FIELDS.put("type", Transformer::getType);
+	FIELDS.put("version", Transformer::getVersion);
+	FIELDS.put("overallRating", Transformer::getOverallRating);
+	FIELDS.put("special", Transformer::isSpecial);
+    }
 
     @Override
     public Resource<Transformer> toResource(Transformer transformer) {
+	return toResource(transformer, baseUri());
+    }
+
+    // same links as linkTo(methodOn(TransformerController.class)
+    // .findTransformerById(id)) and linkTo(TransformerController.class)
+    // .slash("transformers"), without a proxy or a uri build per row
+    private Resource<Transformer> toResource(Transformer transformer,
+	    String baseUri) {
 	return new Resource<>(transformer,
-		linkTo(methodOn(TransformerController.class)
-			.findTransformerById(transformer.getId())).withSelfRel(),
-		linkTo(methodOn(TransformerController.class).getAllTransformers())
-			.withRel("transformers"));
+		new Link(baseUri + TRANSFORMER_PATH[0] + transformer.getId()
+			+ TRANSFORMER_PATH[1], Link.REL_SELF),
+		new Link(baseUri + TRANSFORMERS_PATH, "transformers"));
+    }
+
+    // a page of GET /transformers with a link to the next page if there is
+    // one. The next page starts after the last id of this one.
+    public Resources<Resource<Transformer>> toPage(Slice<Transformer> slice,
+	    Integer after, Transformer.TYPE type) {
+	String baseUri = baseUri();
+	List<Resource<Transformer>> transformers = slice.getContent().stream()
+		.map(transformer -> toResource(transformer, baseUri))
+		.collect(Collectors.toList());
+	return withPageLinks(new Resources<>(transformers), slice,
+		TRANSFORMERS_PATH, after, filters(type, null));
+    }
+
+    // a page of GET /transformers/search, the links keep the ranges
+    public Resources<Resource<Transformer>> toSearchPage(
+	    Slice<Transformer> slice, Integer after, Transformer.TYPE type,
+	    Map<String, String> ranges) {
+	String baseUri = baseUri();
+	List<Resource<Transformer>> transformers = slice.getContent().stream()
+		.map(transformer -> toResource(transformer, baseUri))
+		.collect(Collectors.toList());
+	MultiValueMap<String, String> filters = filters(type, null);
+	filters.setAll(ranges);
+	return withPageLinks(new Resources<>(transformers), slice, SEARCH_PATH,
+		after, filters);
+    }
+
+    // all the given transformers in one response, for GET
+    // /transformers?unpaged=true
+    public Resources<Resource<Transformer>> toUnpaged(
+	    List<Transformer> transformers, Transformer.TYPE type) {
+	String baseUri = baseUri();
+	return new Resources<>(
+		transformers.stream()
+			.map(transformer -> toResource(transformer, baseUri))
+			.collect(Collectors.toList()),
+		unpagedLink(type, null));
+    }
+
+    // the strongest transformers, for GET /transformers/top
+    public Resources<Resource<Transformer>> toTop(
+	    List<Transformer> transformers, Integer k, Transformer.TYPE type) {
+	String baseUri = baseUri();
+	UriComponentsBuilder self = uri(TOP_PATH);
+	if (k != null) {
+	    self.queryParam("k", k);
+	}
+	return new Resources<>(
+		transformers.stream()
+			.map(transformer -> toResource(transformer, baseUri))
+			.collect(Collectors.toList()),
+		new Link(self.queryParams(filters(type, null)).toUriString(),
+			Link.REL_SELF));
+    }
+
+    // a page of GET /transformers?fields=... with only the given fields of
+    // each transformer and no links per transformer
+    public Resources<TransformerProjection> toProjectedPage(
+	    Slice<Transformer> slice, Integer after, Transformer.TYPE type,
+	    List<String> fields) {
+	Resources<TransformerProjection> page = new Resources<>(
+		toProjection(slice.getContent(), fields));
+	return withPageLinks(page, slice, TRANSFORMERS_PATH, after,
+		filters(type, fields));
+    }
+
+    public Resources<TransformerProjection> toProjectedUnpaged(
+	    List<Transformer> transformers, Transformer.TYPE type,
+	    List<String> fields) {
+	return new Resources<>(toProjection(transformers, fields),
+		unpagedLink(type, fields));
+    }
+
+    private static List<TransformerProjection> toProjection(
+	    List<Transformer> transformers, List<String> fields) {
+	@SuppressWarnings("unchecked")
+	Function<Transformer, Object>[] getters = new Function[fields.size()];
+	for (int index = 0; index < getters.length; index++) {
+	    getters[index] = FIELDS.get(fields.get(index));
+	    if (getters[index] == null) {
+		throw new UnknownFieldException(fields.get(index),
+			FIELDS.keySet());
+	    }
+	}
+	return transformers.stream().map(transformer -> {
+	    Map<String, Object> values = new LinkedHashMap<>();
+	    for (int index = 0; index < getters.length; index++) {
+		values.put(fields.get(index),
+			getters[index].apply(transformer));
+	    }
+	    return new TransformerProjection(values);
+	}).collect(Collectors.toList());
+    }
+
+    private <T> Resources<T> withPageLinks(Resources<T> page,
+	    Slice<Transformer> slice, String path, Integer after,
+	    MultiValueMap<String, String> filters) {
+	int limit = slice.getSize();
+	page.add(pageLink(path, after, limit, filters, Link.REL_SELF));
+	if (slice.hasNext()) {
+	    List<Transformer> content = slice.getContent();
+	    int last = content.get(content.size() - 1).getId();
+	    page.add(pageLink(path, last, limit, filters, Link.REL_NEXT));
+	}
+	return page;
+    }
+
+    private Link unpagedLink(Transformer.TYPE type, List<String> fields) {
+	UriComponentsBuilder self = uri(TRANSFORMERS_PATH)
+		.queryParam("unpaged", true);
+	return new Link(self.queryParams(filters(type, fields)).toUriString(),
+		Link.REL_SELF);
+    }
+
+    private Link pageLink(String path, Integer after, int limit,
+	    MultiValueMap<String, String> filters, String rel) {
+	UriComponentsBuilder builder = uri(path);
+	if (after != null) {
+	    builder.queryParam("after", after);
+	}
+	builder.queryParam("limit", limit);
+	return new Link(builder.queryParams(filters).toUriString(), rel);
+    }
+
+    // the query parameters that narrow down the transformers, kept by
+    // every link of a response
+    private static MultiValueMap<String, String> filters(
+	    Transformer.TYPE type, List<String> fields) {
+	MultiValueMap<String, String> filters = new LinkedMultiValueMap<>();
+	if (type != null) {
+	    filters.add("type", type.toString());
+	}
+	if (fields != null) {
+	    filters.add("fields", String.join(",", fields));
+	}
+	return filters;
+    }
+
+    // the query parameters are added by hand, methodOn would turn the ones
+    // that are not set into a link template
+    private static UriComponentsBuilder uri(String path) {
+	return UriComponentsBuilder.fromUriString(baseUri() + path);
+    }
+
+    // scheme, host, port and context path of the current request (taking
+    // the forwarded headers into account), resolved once per response
+    private static String baseUri() {
+	return linkTo(TransformerController.class).toString();
+    }
+
+    private static String mapping(String method, Class<?>... parameters) {
+	try {
+	    return AnnotatedElementUtils.findMergedAnnotation(
+		    TransformerController.class.getMethod(method, parameters),
+		    RequestMapping.class).value()[0];
+	} catch (NoSuchMethodException e) {
+	    throw new IllegalStateException(e);
+	}
     }
 }
@@ -1,47 +1,191 @@
 package com.transformers.services;
 
-import static com.transformers.models.Transformer.TYPE.AUTOBOT;
-import static com.transformers.models.Transformer.TYPE.DECEPTICON;
-
-import java.util.Comparator;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 import javax.validation.Valid;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Component;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.transformers.TransformerProperties;
 import com.transformers.exceptions.TransformerNotFoundException;
+import com.transformers.exceptions.TransformerVersionMismatchException;
+import com.transformers.models.SpecialRoles;
 import com.transformers.models.Transformer;
 import com.transformers.repository.TransformerRepository;
+import com.transformers.repository.TransformerSpecifications;
 
 @Component
 public class TransformerService {
     private final TransformerRepository repository;
-    private final String decepticonsStr = "DECEPTICONS";
-    private final String autobotsStr = "AUTOBOTS";
+    private final RosterSnapshotHolder roster;
+    private final TransformerProperties properties;
+    // read-through cache of findById, bounded in size and time
+    private final Cache<Integer, Transformer> cache;
+    // memoized battle results, see BattleKey
+    private final Cache<BattleKey, BattleReport> battles;
+    // concurrent lookups of the same id and concurrent battles between the
+    // same transformers are run once for all of their callers
+    private final SingleFlight<Integer, Transformer> lookups =
+	    new SingleFlight<>();
+    private final SingleFlight<BattleKey, BattleReport> fights =
+	    new SingleFlight<>();
+    // null when the battles are not kept
+    private final BattleHistory history;
+    // whether the battles keep their rounds for the history
+    private final boolean recording;
+    private final BattleRulesHolder rules;
+    private final SpecialRoles roles;
 
     public TransformerService(TransformerRepository repository) {
+	this(repository, new TransformerProperties());
+    }
+
+    private TransformerService(TransformerRepository repository,
+	    TransformerProperties properties) {
+	this(repository, new RosterSnapshotHolder(repository), properties,
+		null, new BattleRulesHolder(properties),
+		new SpecialRoles(properties));
+    }
+
+    @Autowired
+    public TransformerService(TransformerRepository repository,
+	    RosterSnapshotHolder roster, TransformerProperties properties,
+	    BattleHistory history, BattleRulesHolder rules,
+	    SpecialRoles roles) {
 	this.repository = repository;
+	this.roster = roster;
+	this.properties = properties;
+	this.history = history;
+	this.recording = history != null && history.isEnabled();
+	this.rules = rules;
+	this.roles = roles;
+	this.cache = Caffeine.newBuilder()
+		.maximumSize(properties.getCache().getMaximumSize())
+		.expireAfterWrite(properties.getCache().getTtl().toNanos(),
+			TimeUnit.NANOSECONDS)
+		.recordStats().build();
+	// weighed, a massive battle takes the room of many small ones
+	this.battles = Caffeine.newBuilder()
+		.maximumWeight(properties.getBattleCache().getMaximumWeight()
+			.toBytes())
+		.weigher((BattleKey key, BattleReport report) -> report
+			.weight())
+		.build();
     }
 
     public List<Transformer> getAllTransformers() {
 	return repository.findAll();
     }
 
+    public List<Transformer> getAllTransformers(Transformer.TYPE type) {
+	return type == null ? repository.findAll()
+		: repository.findByType(type);
+    }
+
+    // a page of transformers ordered by id, starting after the given id. The
+    // query seeks on the primary key so every page costs the same no matter
+    // how deep into the table it is.
+    public Slice<Transformer> getTransformersAfter(Integer after,
+	    Integer limit, Transformer.TYPE type) {
+	Pageable pageable = firstPage(limit);
+	int afterId = after == null ? 0 : after;
+	return type == null ? repository.findByIdGreaterThan(afterId, pageable)
+		: repository.findByTypeAndIdGreaterThan(type, afterId,
+			pageable);
+    }
+
+    // same pages as getTransformersAfter, of the transformers whose
+    // attributes are within the given ranges, see
+    // TransformerSpecifications.inRange. The ranges are keyed by attribute.
+    public Slice<Transformer> searchTransformers(Integer after,
+	    Integer limit, Transformer.TYPE type, Map<String, String> ranges) {
+	Specification<Transformer> specification = Specification
+		.where(TransformerSpecifications.ofType(type))
+		.and(TransformerSpecifications
+			.idGreaterThan(after == null ? 0 : after));
+	for (Map.Entry<String, String> range : ranges.entrySet()) {
+	    specification = specification.and(TransformerSpecifications
+		    .inRange(range.getKey(), range.getValue()));
+	}
+	return repository.search(specification, firstPage(limit));
+    }
+
+    private Pageable firstPage(Integer limit) {
+	TransformerProperties.Page page = properties.getPage();
+	int size = limit == null ? page.getDefaultLimit()
+		: Math.max(1, Math.min(limit, page.getMaxLimit()));
+	return PageRequest.of(0, size, Sort.by("id"));
+    }
+
+    // the k strongest transformers by overall rating, of the given type or
+    // of all types, at most transformers.leaderboard.size of them
+    public List<Transformer> getTopTransformers(Integer k,
+	    Transformer.TYPE type) {
+	TransformerProperties.Leaderboard leaderboard = properties
+		.getLeaderboard();
+	int count = k == null ? leaderboard.getDefaultK()
+		: Math.min(k, leaderboard.getSize());
+	return roster.leaderboard().top(count, type);
+    }
+
     public Transformer createTransformer(@Valid Transformer transformer) {
-	return repository.save(transformer);
+	Transformer saved = repository.save(transformer);
+	roster.saved(saved);
+	return saved;
     }
 
     public Transformer findById(Integer id) throws TransformerNotFoundException {
-	return repository.findById(id)
-		.orElseThrow(() -> new TransformerNotFoundException(id));
+	// ids that don't exist are not cached, a burst of lookups of one of
+	// them still makes a single query
+	Transformer transformer = lookups.run(id, () -> cache.get(id,
+		key -> repository.findById(key).orElse(null)));
+	if (transformer == null) {
+	    throw new TransformerNotFoundException(id);
+	}
+	return transformer;
+    }
+
+    // changes to the roster committed so far, changes with every create,
+    // update and delete
+    public String getRosterVersion() {
+	return roster.version();
+    }
+
+    // version of the saved transformer as of the roster snapshot, -1 if
+    // there is none. Answered from memory, the database is not queried.
+    public int getVersion(Integer id) {
+	return roster.current().versionOf(id);
+    }
+
+    public CacheStats getCacheStats() {
+	return cache.stats();
+    }
+
+    public long getCacheSize() {
+	return cache.estimatedSize();
     }
 
     public Transformer updateOrCreateTransformer(@Valid Transformer newTransformer,
 	    Integer id) {
-	return repository.findById(id).map((Transformer transformer) -> {
+	Transformer saved = repository.findById(id).map(transformer -> {
 	    transformer.setStrength(newTransformer.getStrength());
 	    transformer.setIntelligence(newTransformer.getIntelligence());
 	    transformer.setSpeed(newTransformer.getSpeed());
@@ -57,188 +201,152 @@ public class TransformerService {
 	    // a new transformer with an auto generated id will be created.
 	    return repository.save(newTransformer);
 	});
+	roster.saved(saved);
+	evict(id, saved.getId());
+	return saved;
+    }
+
+    // overwrites the transformer with one UPDATE statement that also checks
+    // and bumps its version, without reading it first. Throws
+    // TransformerVersionMismatchException if the transformer does not exist
+    // or no longer has the given version.
+    public Transformer updateTransformerIfVersion(
+	    @Valid Transformer newTransformer, Integer id, int version) {
+	roles.resolve(newTransformer);
+	if (repository.updateIfVersion(id, version, newTransformer) == 0) {
+	    throw new TransformerVersionMismatchException(id);
+	}
+	// every column was written, so the entity is known without a select
+	Transformer saved = new Transformer(id, newTransformer.getName(),
+		newTransformer.getStrength(), newTransformer.getIntelligence(),
+		newTransformer.getSpeed(), newTransformer.getEndurance(),
+		newTransformer.getRank(), newTransformer.getCourage(),
+		newTransformer.getFirepower(), newTransformer.getSkill(),
+		newTransformer.getType());
+	saved.setVersion(version + 1);
+	saved.setSpecial(newTransformer.isSpecial());
+	roster.saved(saved);
+	evict(id);
+	return saved;
     }
 
     public void delete(Integer id) {
 	repository.deleteById(id);
+	roster.deleted(id);
+	evict(id);
     }
 
+    // drops the given ids from the cache once the change is committed. A
+    // lookup that is loading one of them at that moment finishes first, so
+    // the cache can't keep the old row, and the lookups that come after
+    // don't join it.
+    private void evict(Integer... ids) {
+	Transactions.afterCommit(() -> Arrays.stream(ids).forEach(id -> {
+	    cache.invalidate(id);
+	    lookups.forget(id);
+	}));
+    }
+
+    // battles are set up from the roster snapshot and never hit the
+    // database
     public HashMap<String, String> getBattleResult(List<Integer> ids) {
-	HashMap<String, String> res = new HashMap<>();
-	List<Transformer> transformers = repository.findAllById(ids);
-	if (transformers.size() < 2) {
-	    res.put("Error", "2 or more valid ids required");
-	    return res;
-	}
-	List<Transformer> autobots = getTransfromersByTypeSortedByRank(
-		transformers, AUTOBOT);
-	List<Transformer> decepticons = getTransfromersByTypeSortedByRank(
-		transformers, DECEPTICON);
-
-	String survivors = "No survivors";
-
-	res = calculateWinner(autobots, decepticons);
-	if (res.get("HasGameBeenDestoryed") == "NO") {
-	    if (res.get("Winner").contains(decepticonsStr)
-		    && autobots.size() > decepticons.size()) {
-		survivors = getSurvivorNames(autobots, decepticons.size(),
-			autobotsStr);
-	    } else if (res.get("Winner").contains(autobotsStr)
-		    && decepticons.size() > autobots.size()) {
-		survivors = getSurvivorNames(decepticons, autobots.size(),
-			decepticonsStr);
-	    }
-	} else {
-	    res.replace("Winner", "Everyone was destroyed");
+	return getBattleResult(roster.current(), ids);
+    }
+
+    // a repeated battle is answered from the cache as long as none of its
+    // participants changed, and callers asking for the same battle at the
+    // same time wait for one fight. The caller gets its own copy of the
+    // result.
+    // Every battle fought, repeated or not, goes to the battle history.
+    private HashMap<String, String> getBattleResult(RosterSnapshot snapshot,
+	    List<Integer> ids) {
+	BattleRules current = rules.current();
+	BattleKey key = BattleKey.of(current, snapshot, ids);
+	BattleReport report = fights.run(key, () -> battles.get(key,
+		battle -> BattleEngine.report(current, snapshot, ids,
+			recording)));
+	if (recording && report.recorded()) {
+	    history.record(report.toBattle(Instant.now()));
 	}
-	res.put("Survivors", survivors);
-	res.remove("HasGameBeenDestoryed");
-	return res;
-    }
-
-    private List<Transformer> getTransfromersByTypeSortedByRank(
-	    List<Transformer> transformers, Transformer.TYPE type) {
-	return transformers.stream().filter(t -> t.getType() == type)
-		.sorted((t1, t2) -> Integer.compare(t1.getRank(), t2.getRank()))
-		.collect(Collectors.toList());
-    }
-
-    private String getSurvivorNames(List<Transformer> list, int startingIndex,
-	    String teamName) {
-	String acc = "Survivors from losing team (" + teamName + "): ";
-	// since the list is sorted, skipped transformers will be from the end
-	// of the list
-	return list.subList(startingIndex, list.size()).stream()
-		.map(t -> t.getName() + " ").reduce(acc, String::concat).trim();
-    }
-
-    private HashMap<String, String> calculateWinner(List<Transformer> autobots,
-	    List<Transformer> decepticons) {
-	// using hashmap to keep and increment the count of battles won by a
-	// team
-	HashMap<String, Integer> battlesResult = new HashMap<>();
-	battlesResult.put(decepticonsStr, 0);
-	battlesResult.put(autobotsStr, 0);
-	battlesResult.put("HasGameBeenDestoryed", 0);
-	battlesResult.put("NumberOfBattles", 0);
-
-	return beginFights(battlesResult, autobots, decepticons);
-    }
-
-    private HashMap<String, String> beginFights(
-	    HashMap<String, Integer> battlesResult, List<Transformer> autobots,
-	    List<Transformer> decepticons) {
-	// zipping both the lists so that the iterations are run according to
-	// the list with the minimum size and items in the list with larger size
-	// are skipped accordingly
-	for (int index = 0; index < Math.min(autobots.size(),
-		decepticons.size()); index++) {
-	    if (battlesResult.get("HasGameBeenDestoryed") == 0) {
-		Transformer autobot = autobots.get(index);
-		Transformer decepticon = decepticons.get(index);
-
-		int courageDifference = autobot.getCourage()
-			- decepticon.getCourage();
-		int strengthDifference = autobot.getStrength()
-			- decepticon.getStrength();
-		int skillDifference = autobot.getSkill()
-			- decepticon.getSkill();
-
-		// we can add another OR condition in this if block to check if
-		// there is a clone of either Optimus Prime or Predaking but
-		// that depends on the definition of a clone which can be
-		// related to the name or other features of the transformer but
-		// is not clear in the requirements.
-		if (autobot.getName() == "Optimus Prime"
-			&& decepticon.getName() == "Predaking") {
-		    // incrementing the number of battles by one and breaking
-		    // the loop because the game has been destroyed because of
-		    // this battle
-		    battlesResult.replace("HasGameBeenDestoryed", 1);
-		    battlesResult.replace("NumberOfBattles",
-			    battlesResult.get("NumberOfBattles") + 1);
-		    break;
-		} else if (autobot.getName() == "Optimus Prime"
-			&& decepticon.getName() != "Predaking") {
-		    battlesResult.merge(autobotsStr, 1, Integer::sum);
-		} else if (decepticon.getName() == "Predaking"
-			&& autobot.getName() != "Optimus Prime") {
-		    battlesResult.merge(decepticonsStr, 1, Integer::sum);
-		} else if (courageDifference >= 4 || strengthDifference >= 3
-			|| skillDifference >= 3) {
-		    battlesResult.merge(autobotsStr, 1, Integer::sum);
-		} else if (courageDifference <= -4 || strengthDifference <= -3
-			|| skillDifference <= -3) {
-		    battlesResult.merge(decepticonsStr, 1, Integer::sum);
-		} else if (autobot.getOverallRating() > decepticon
-			.getOverallRating()) {
-		    battlesResult.merge(autobotsStr, 1, Integer::sum);
-		} else if (decepticon.getOverallRating() > autobot
-			.getOverallRating()) {
-		    battlesResult.merge(decepticonsStr, 1, Integer::sum);
-		}
-		// incrementing the battle count as the game has not been
-		// destroyed even though there may be a chance where there was a
-		// tie but it still counts as a battle
-		battlesResult.replace("NumberOfBattles",
-			battlesResult.get("NumberOfBattles") + 1);
-	    }
+	return new HashMap<>(report.result);
+    }
+
+    // the battle of the given ids fought a chunk of rounds at a time (see
+    // transformers.battle-stream and BattleStream), the listener gets the
+    // progress after every chunk. A battle the listener stops has no result
+    // and is not kept in the battle history.
+    public HashMap<String, String> streamBattleResult(List<Integer> ids,
+	    Predicate<HashMap<String, Object>> listener) {
+	BattleReport report = BattleStream.fight(rules.current(),
+		roster.current(), ids,
+		properties.getBattleStream().getChunkRounds(), listener);
+	if (report == null) {
+	    return null;
 	}
-	return getFinalResult(battlesResult, autobots, decepticons);
-    }
-
-    private HashMap<String, String> getFinalResult(
-	    HashMap<String, Integer> battlesResult, List<Transformer> autobots,
-	    List<Transformer> decepticons) {
-
-	HashMap<String, String> result = new HashMap<>();
-	result.put("Winner",
-		battlesResult.get("NumberOfBattles") == 0 ? "No battles fought"
-			: "Equal matches won by both teams");
-	result.put("NumberOfBattles",
-		battlesResult.get("NumberOfBattles").toString() + " battle");
-	result.put("HasGameBeenDestoryed",
-		battlesResult.get("HasGameBeenDestoryed") == 0 ? "NO" : "YES");
-
-	Transformer maxAutobot = getMaxTransformer(autobots);
-	Transformer maxDecepticon = getMaxTransformer(decepticons);
-
-	// if game has not been destroyed, get the winning team name and the
-	// member of the winning team with the highest rating
-	if (maxAutobot != null && maxDecepticon != null) {
-	    String autobotsWon = "Winning team (" + autobotsStr + ") : "
-		    + maxAutobot.getName();
-	    String decepticonsWon = "Winning team (" + decepticonsStr + ") : "
-		    + maxDecepticon.getName();
-
-	    boolean equalMatchesWon = battlesResult
-		    .get(autobotsStr) == battlesResult.get(decepticonsStr);
-	    boolean autobotsWonGreaterMatches = battlesResult
-		    .get(autobotsStr) > battlesResult.get(decepticonsStr);
-	    boolean decepticonsWonGreaterMatches = battlesResult
-		    .get(decepticonsStr) > battlesResult.get(autobotsStr);
-	    if (equalMatchesWon) {
-		if (maxAutobot.getOverallRating() > maxDecepticon
-			.getOverallRating()) {
-		    result.replace("Winner", autobotsWon);
-		} else if (maxDecepticon.getOverallRating() > maxAutobot
-			.getOverallRating()) {
-		    result.replace("Winner", decepticonsWon);
-		}
-	    } else if (autobotsWonGreaterMatches) {
-		result.replace("Winner", autobotsWon);
-	    } else if (decepticonsWonGreaterMatches) {
-		result.replace("Winner", decepticonsWon);
-	    }
+	if (recording && report.recorded()) {
+	    history.record(report.toBattle(Instant.now()));
 	}
+	return report.result;
+    }
+
+    // evaluates one battle per list of ids against the same snapshot of the
+    // roster. The battles are fought in parallel on the fork-join pool of
+    // the BattleExecutor; the results keep the order of the lists.
+    public List<HashMap<String, String>> getBattleResults(
+	    List<List<Integer>> matchups) {
+	RosterSnapshot snapshot = roster.current();
+	@SuppressWarnings("unchecked")
+	HashMap<String, String>[] results = new HashMap[matchups.size()];
+	IntStream.range(0, matchups.size()).parallel().forEach(index -> {
+	    List<Integer> ids = matchups.get(index);
+	    results[index] = getBattleResult(snapshot,
+		    ids == null ? Collections.<Integer>emptyList() : ids);
+	});
+	return Arrays.asList(results);
+    }
 
-	return result;
+    // a tournament between the given teams, each set up once from the same
+    // snapshot of the roster
+    public HashMap<String, Object> getTournamentResults(
+	    Map<String, List<Integer>> teams, Tournament.MODE mode) {
+	return Tournament.play(rules.current(), roster.current(), teams,
+		mode);
     }
 
-    private Transformer getMaxTransformer(List<Transformer> transformers) {
-	return transformers.stream()
-		.max(Comparator.comparing(Transformer::getOverallRating))
-		.orElse(null);
+    // the odds of the lineup of the given ids with that many transformers
+    // of the given type sampled from the roster, see Simulation. The
+    // simulations are repeated by sending back the seed of the response.
+    public HashMap<String, Object> getSimulationResults(List<Integer> ids,
+	    Transformer.TYPE type, Integer sample, Integer simulations,
+	    Long seed) {
+	TransformerProperties.Simulation simulation = properties
+		.getSimulation();
+	int count = simulations == null ? simulation.getDefaultSimulations()
+		: Math.max(1, Math.min(simulations,
+			simulation.getMaxSimulations()));
+	return Simulation.run(rules.current(), roster.current(), ids, type,
+		sample == null ? 0 : sample, count,
+		seed == null ? new SplittableRandom().nextLong() : seed);
     }
 
+    // the order the team should fight in against the opponent, see Lineup
+    public HashMap<String, Object> getBestLineup(List<Integer> team,
+	    List<Integer> opponent, Transformer.TYPE side,
+	    Lineup.OBJECTIVE objective) {
+	return Lineup.optimize(rules.current(), roster.current(),
+		team == null ? Collections.<Integer>emptyList() : team,
+		opponent == null ? Collections.<Integer>emptyList() : opponent,
+		side, objective);
+    }
+
+    public TransformerProperties.BattleRules getBattleRules() {
+	return rules.current().getMargins();
+    }
+
+    // compiles the given margins and fights the battles that come after by
+    // them. Battles remembered from the old rules are not answered again.
+    public TransformerProperties.BattleRules updateBattleRules(
+	    TransformerProperties.BattleRules margins) {
+	return rules.reload(margins).getMargins();
+    }
 }
@@ -1,22 +1,53 @@
 package com.transformers.api;
 
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
+import com.transformers.CborConfig;
+import com.transformers.TransformerProperties;
 import com.transformers.models.Transformer;
+import com.transformers.services.BattleExecutor;
+import com.transformers.services.BattleHistory;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
@@ -24,6 +55,14 @@ import com.transformers.models.Transformer;
 public class ApiTest {
     @Autowired
     private MockMvc mockMvc;
+    @Autowired
+    private BattleHistory history;
+    @Autowired
+    private CborConfig cborConfig;
+    @Autowired
+    private BattleExecutor battles;
+    @Autowired
+    private TransformerProperties properties;
 
     @Test
     public void testGetAllTransformers() throws Exception {
@@ -33,6 +72,91 @@ public class ApiTest {
 			.jsonPath("$._embedded.transformerList").isArray());
     }
 
+    @Test
+    public void getTransformersOnePageAtATime() throws Exception {
+	mockMvc.perform(MockMvcRequestBuilders
+		.get("/transformers?type=DECEPTICON&limit=1")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList[0].name")
+			.value("Predaking"))
+		.andExpect(MockMvcResultMatchers.jsonPath("$._links.next.href")
+			.value(containsString("after=2")));
+
+	mockMvc.perform(MockMvcRequestBuilders
+		.get("/transformers?type=DECEPTICON&after=2&limit=5")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList[0].name")
+			.value("Soundwave"));
+    }
+
+    @Test
+    public void getOnlyTheGivenFieldsOfTheTransformers() throws Exception {
+	mockMvc.perform(MockMvcRequestBuilders
+		.get("/transformers?fields=id,name&limit=2")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList[1].name")
+			.value("Predaking"))
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList[1].rank")
+			.doesNotExist())
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList[1]._links")
+			.doesNotExist())
+		.andExpect(MockMvcResultMatchers.jsonPath("$._links.next.href")
+			.value(containsString("fields=id,name")));
+
+	mockMvc.perform(MockMvcRequestBuilders
+		.get("/transformers?fields=id,height")
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void searchTransformersByAttributeRanges() throws Exception {
+	mockMvc.perform(MockMvcRequestBuilders
+		.get("/transformers/search?type=DECEPTICON&skill=8..&rank=..3")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList.length()")
+			.value(1))
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList[0].name")
+			.value("Predaking"));
+
+	mockMvc.perform(MockMvcRequestBuilders
+		.get("/transformers/search?overallRating=30..40&limit=1")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList[0].name")
+			.value("Soundwave"))
+		.andExpect(MockMvcResultMatchers.jsonPath("$._links.next.href")
+			.value(allOf(containsString("after=3"),
+				containsString("overallRating=30..40"))));
+
+	mockMvc.perform(MockMvcRequestBuilders
+		.get("/transformers/search?height=1..2")
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isBadRequest());
+	mockMvc.perform(MockMvcRequestBuilders
+		.get("/transformers/search?skill=high")
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getAllTransformersUnpaged() throws Exception {
+	mockMvc.perform(MockMvcRequestBuilders
+		.get("/transformers?unpaged=true")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList").isArray())
+		.andExpect(MockMvcResultMatchers.jsonPath("$._links.next")
+			.doesNotExist());
+    }
+
     @Test
     public void checkIfTransformerIsGettingSavedOrNot() throws Exception {
 	mockMvc.perform(MockMvcRequestBuilders.post("/transformers")
@@ -63,6 +187,81 @@ public class ApiTest {
 			.value("Optimus Prime"));
     }
 
+    @Test
+    public void getTheStrongestTransformers() throws Exception {
+	mockMvc.perform(MockMvcRequestBuilders
+		.get("/transformers/top?k=2&type=AUTOBOT")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList[0].name")
+			.value("Optimus Prime"))
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList[1].name")
+			.value("Bluestreak"))
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList.length()")
+			.value(2))
+		.andExpect(MockMvcResultMatchers.jsonPath("$._links.self.href")
+			.value(containsString(
+				"/transformers/top?k=2&type=AUTOBOT")));
+    }
+
+    @DirtiesContext
+    @Test
+    public void pollTheRosterWithItsETag() throws Exception {
+	String etag = mockMvc
+		.perform(MockMvcRequestBuilders.get("/transformers")
+			.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isOk()).andReturn().getResponse()
+		.getHeader("ETag");
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers")
+		.header("If-None-Match", etag)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isNotModified())
+		.andExpect(MockMvcResultMatchers.content().string(""))
+		.andExpect(MockMvcResultMatchers.header().string("Vary",
+			"Accept"));
+	// another page or representation has a tag of its own
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers?limit=2")
+		.header("If-None-Match", etag)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isOk());
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers")
+		.header("If-None-Match", etag).accept(CborConfig.CBOR))
+		.andExpect(status().isOk());
+	String jazz = mockMvc
+		.perform(MockMvcRequestBuilders.get("/transformers/5")
+			.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.header().string("Vary",
+			"Accept"))
+		.andReturn().getResponse().getHeader("ETag");
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers/5")
+		.header("If-None-Match", jazz)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isNotModified())
+		.andExpect(MockMvcResultMatchers.header().string("Vary",
+			"Accept"));
+	// the CBOR transformer is another representation
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers/5")
+		.header("If-None-Match", jazz).accept(CborConfig.CBOR))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.header().string("ETag",
+			not(jazz)));
+
+	// any save changes the roster version
+	mockMvc.perform(MockMvcRequestBuilders.post("/transformers")
+		.content(asJsonString(new Transformer(6, "Jazz", 6, 7, 8, 6, 5,
+			8, 6, 8, Transformer.TYPE.AUTOBOT)))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers")
+		.header("If-None-Match", etag)
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.header().string("ETag",
+			not(etag)));
+    }
+
     @Test
     public void getDetailsOfTransformerWithInvalidId() throws Exception {
 	mockMvc.perform(MockMvcRequestBuilders.get("/transformers/10")
@@ -70,6 +269,110 @@ public class ApiTest {
 		.andExpect(status().isNotFound());
     }
 
+    @Test
+    public void getCacheStatsOfTransformerLookups() throws Exception {
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers/1")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers/cache/stats")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$.content.HitCount")
+			.isNumber())
+		.andExpect(MockMvcResultMatchers.jsonPath("$.content.Size")
+			.isNumber());
+    }
+
+    @Test
+    public void exportAllTransformersAsNewlineDelimitedJson()
+	    throws Exception {
+	MvcResult export = mockMvc
+		.perform(MockMvcRequestBuilders.get("/transformers/export"))
+		.andExpect(MockMvcResultMatchers.request().asyncStarted())
+		.andReturn();
+	mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(export))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.content()
+			.contentType("application/x-ndjson"))
+		.andExpect(MockMvcResultMatchers.content()
+			.string(startsWith("{\"id\":1,")))
+		.andExpect(MockMvcResultMatchers.content().string(containsString(
+			"}\n{\"id\":2,\"name\":\"Predaking\"")));
+    }
+
+    @DirtiesContext
+    @Test
+    public void importManyTransformersAndReportTheInvalidOnes()
+	    throws Exception {
+	Transformer[] transformers = new Transformer[] {
+		new Transformer(0, "Jazz", 6, 6, 7, 9, 5, 2, 9, 7,
+			Transformer.TYPE.AUTOBOT),
+		new Transformer(0, "Starscream", 14, 6, 7, 9, 5, 2, 9, 7,
+			Transformer.TYPE.DECEPTICON),
+		new Transformer(0, "Shockwave", 8, 9, 2, 6, 7, 5, 6, 10,
+			Transformer.TYPE.DECEPTICON) };
+	mockMvc.perform(MockMvcRequestBuilders.post("/transformers/bulk")
+		.content(asJsonString(transformers))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Imported").value(2))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Failed").value(1))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Errors[0].Row")
+			.value(1));
+
+	mockMvc.perform(MockMvcRequestBuilders
+		.get("/transformers?type=DECEPTICON&after=3")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.transformerList[0].name")
+			.value("Shockwave"));
+    }
+
+    @Test
+    public void saveTheRestOfAChunkTheDatabaseRefuses() throws Exception {
+	char[] name = new char[300];
+	Arrays.fill(name, 'x');
+	// valid, but too long for the name column
+	Transformer tooLong = new Transformer(0, new String(name), 1, 1, 1, 1,
+		1, 1, 1, 1, Transformer.TYPE.AUTOBOT);
+	Transformer[] transformers = new Transformer[] {
+		new Transformer(0, "Hound", 1, 1, 1, 1, 1, 1, 1, 1,
+			Transformer.TYPE.AUTOBOT),
+		tooLong };
+	mockMvc.perform(MockMvcRequestBuilders.post("/transformers/bulk")
+		.content(asJsonString(transformers))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Imported").value(1))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Failed").value(1))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Errors[0].Row")
+			.value(1))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Errors[0].Error")
+			.value(startsWith("not saved: ")));
+    }
+
+    @Test
+    public void listOnlyTheFirstErrorsOfAnImport() throws Exception {
+	Transformer[] transformers = new Transformer[3];
+	Arrays.fill(transformers, new Transformer(0, "Starscream", 14, 6, 7,
+		9, 5, 2, 9, 7, Transformer.TYPE.DECEPTICON));
+	int maxErrors = properties.getBulk().getMaxErrors();
+	properties.getBulk().setMaxErrors(2);
+	try {
+	    mockMvc.perform(MockMvcRequestBuilders.post("/transformers/bulk")
+		    .content(asJsonString(transformers))
+		    .contentType(MediaType.APPLICATION_JSON)
+		    .accept(MediaType.APPLICATION_JSON))
+		    .andExpect(status().isOk())
+		    .andExpect(MockMvcResultMatchers.jsonPath("$.Imported")
+			    .value(0))
+		    .andExpect(MockMvcResultMatchers.jsonPath("$.Failed")
+			    .value(3))
+		    .andExpect(MockMvcResultMatchers
+			    .jsonPath("$.Errors.length()").value(2));
+	} finally {
+	    properties.getBulk().setMaxErrors(maxErrors);
+	}
+    }
+
     @DirtiesContext
     @Test
     public void updateAlreadyExistingTransformerWithValidId() throws Exception {
@@ -97,6 +400,66 @@ public class ApiTest {
 		.andExpect(status().isBadRequest());
     }
 
+    @DirtiesContext
+    @Test
+    public void updateTransformerOnlyWhileItsETagMatches() throws Exception {
+	String etag = mockMvc
+		.perform(MockMvcRequestBuilders.get("/transformers/4")
+			.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.header().string("ETag",
+			startsWith("\"0-")))
+		.andReturn().getResponse().getHeader("ETag");
+	String bluestreak = asJsonString(new Transformer(4, "Bluestreak", 7, 6,
+		7, 9, 5, 2, 9, 7, Transformer.TYPE.AUTOBOT));
+	mockMvc.perform(MockMvcRequestBuilders.put("/transformers/4")
+		.header("If-Match", etag).content(bluestreak)
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.header().string("ETag",
+			startsWith("\"1-")))
+		.andExpect(MockMvcResultMatchers.header().string("Vary",
+			"Accept"))
+		.andExpect(
+			MockMvcResultMatchers.jsonPath("$.strength").value(7))
+		.andExpect(
+			MockMvcResultMatchers.jsonPath("$.version").value(1));
+	// the second update still has the first version
+	mockMvc.perform(MockMvcRequestBuilders.put("/transformers/4")
+		.header("If-Match", etag).content(bluestreak)
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isPreconditionFailed());
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers/4")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(
+			MockMvcResultMatchers.jsonPath("$.version").value(1));
+    }
+
+    @DirtiesContext
+    @Test
+    public void ignoreTheVersionSentInTheBody() throws Exception {
+	Transformer bluestreak = new Transformer(4, "Bluestreak", 7, 6, 7, 9,
+		5, 2, 9, 7, Transformer.TYPE.AUTOBOT);
+	bluestreak.setVersion(7);
+	mockMvc.perform(MockMvcRequestBuilders.put("/transformers/4")
+		.content(asJsonString(bluestreak))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(
+			MockMvcResultMatchers.jsonPath("$.version").value(1));
+	Transformer jazz = new Transformer(6, "Jazz", 6, 8, 7, 8, 5, 9, 7, 8,
+		Transformer.TYPE.AUTOBOT);
+	jazz.setVersion(3);
+	mockMvc.perform(MockMvcRequestBuilders.post("/transformers")
+		.content(asJsonString(jazz))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(
+			MockMvcResultMatchers.jsonPath("$.name").value("Jazz"))
+		.andExpect(
+			MockMvcResultMatchers.jsonPath("$.version").value(0));
+    }
+
     @DirtiesContext
     @Test
     public void deleteTransformerWithValidId() throws Exception {
@@ -118,7 +481,7 @@ public class ApiTest {
     public void findWinnerFromTransformersBattleWhenOptimusPrimeAndPredakingFight()
 	    throws Exception {
 	String[] ids = new String[] { "1", "2", "3", "4", "5" };
-	mockMvc.perform(MockMvcRequestBuilders.post("/getBattleResult")
+	performBattle(MockMvcRequestBuilders.post("/getBattleResult")
 		.content(asJsonString(ids))
 		.contentType(MediaType.APPLICATION_JSON)
 		.accept(MediaType.APPLICATION_JSON))
@@ -136,7 +499,7 @@ public class ApiTest {
     public void findWinnerFromTransformersBattleWithValidIds()
 	    throws Exception {
 	String[] ids = new String[] { "5", "3", "4" };
-	mockMvc.perform(MockMvcRequestBuilders.post("/getBattleResult")
+	performBattle(MockMvcRequestBuilders.post("/getBattleResult")
 		.content(asJsonString(ids))
 		.contentType(MediaType.APPLICATION_JSON)
 		.accept(MediaType.APPLICATION_JSON))
@@ -150,13 +513,43 @@ public class ApiTest {
 
     }
 
+    @DirtiesContext
+    @Test
+    public void fightByTheBattleRulesPutWhileRunning() throws Exception {
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers/2")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$.special")
+			.value(true));
+	mockMvc.perform(MockMvcRequestBuilders.get("/battles/rules")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$.skill").value(3));
+	mockMvc.perform(MockMvcRequestBuilders.put("/battles/rules")
+		.content("{\"courage\":4,\"strength\":3,\"skill\":11}")
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isBadRequest());
+	mockMvc.perform(MockMvcRequestBuilders.put("/battles/rules")
+		.content("{\"courage\":4,\"strength\":3,\"skill\":4}")
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$.skill").value(4));
+	// Soundwave is only 3 ahead in skill, Bluestreak has the higher
+	// rating
+	performBattle(MockMvcRequestBuilders.post("/getBattleResult")
+		.content(asJsonString(new String[] { "3", "4" }))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.content.Winner")
+			.value("Winning team (AUTOBOTS) : Bluestreak"));
+    }
+
     @Test
     public void findWinnerFromTransformersBattleWithInvalidIds()
 	    throws Exception {
 	// An invalid id will not return an instance and hence in this case
 	// only 2 transformers will fight i.e. 3 & 4
 	String[] ids = new String[] { "15", "3", "4" };
-	mockMvc.perform(MockMvcRequestBuilders.post("/getBattleResult")
+	performBattle(MockMvcRequestBuilders.post("/getBattleResult")
 		.content(asJsonString(ids))
 		.contentType(MediaType.APPLICATION_JSON)
 		.accept(MediaType.APPLICATION_JSON))
@@ -176,7 +569,7 @@ public class ApiTest {
 	// only valid ids will be considered for a battle which have to be more
 	// than 2
 	String[] ids = new String[] { "12", "4" };
-	mockMvc.perform(MockMvcRequestBuilders.post("/getBattleResult")
+	performBattle(MockMvcRequestBuilders.post("/getBattleResult")
 		.content(asJsonString(ids))
 		.contentType(MediaType.APPLICATION_JSON)
 		.accept(MediaType.APPLICATION_JSON))
@@ -185,6 +578,252 @@ public class ApiTest {
 
     }
 
+    @Test
+    public void findWinnersOfManyBattlesInOneRequest() throws Exception {
+	Integer[][] ids = new Integer[][] { { 1, 2, 3, 4, 5 }, { 5, 3, 4 },
+		{ 12, 4 } };
+	performBattle(MockMvcRequestBuilders.post("/getBattleResults")
+		.content(asJsonString(ids))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$[0].Winner")
+			.value("Everyone was destroyed"))
+		.andExpect(MockMvcResultMatchers.jsonPath("$[1].Winner")
+			.value("Winning team (DECEPTICONS) : Soundwave"))
+		.andExpect(MockMvcResultMatchers.jsonPath("$[1].Survivors")
+			.value("Survivors from losing team (AUTOBOTS): Bluestreak"))
+		.andExpect(MockMvcResultMatchers.jsonPath("$[2].Error")
+			.value("2 or more valid ids required"));
+    }
+
+    @Test
+    public void findStandingsOfARoundRobinTournament() throws Exception {
+	LinkedHashMap<String, Integer[]> teams = new LinkedHashMap<>();
+	teams.put("Primes", new Integer[] { 1, 4 });
+	teams.put("Soundwaves", new Integer[] { 3, 5 });
+	teams.put("Hubcaps", new Integer[] { 5 });
+	performBattle(MockMvcRequestBuilders.post("/getTournamentResults")
+		.content(asJsonString(teams))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Matches.length()")
+			.value(3))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Standings[0].Team")
+			.value("Primes"))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Standings[0].Won")
+			.value(2));
+    }
+
+    @Test
+    public void findTheOddsOfALineupWithSampledTransformers()
+	    throws Exception {
+	// Optimus Prime with either Predaking or Soundwave
+	performBattle(MockMvcRequestBuilders.post(
+		"/getSimulationResults?type=DECEPTICON&sample=1"
+			+ "&simulations=1000&seed=7")
+		.content(asJsonString(new Integer[] { 1 }))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Simulations")
+			.value(1000))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Seed").value(7))
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$.DecepticonsWin.Count").value(0))
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$.Destroyed.Probability")
+			.value(closeTo(0.5, 0.1)))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Destroyed.Low")
+			.value(lessThan(0.5)));
+    }
+
+    @Test
+    public void findTheLineupThatKeepsTheGameFromBeingDestroyed()
+	    throws Exception {
+	// by rank Optimus Prime would meet Predaking
+	LinkedHashMap<String, Integer[]> teams = new LinkedHashMap<>();
+	teams.put("team", new Integer[] { 1, 4 });
+	teams.put("opponent", new Integer[] { 3, 2 });
+	performBattle(MockMvcRequestBuilders.post("/getBestLineup")
+		.content(asJsonString(teams))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Lineup[0]")
+			.value(4))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Opponents[0]")
+			.value(2))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Won").value(1))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.Result.Winner")
+			.value("Equal matches won by both teams"));
+    }
+
+    @Test
+    public void streamTheRoundsOfABattleAsTheyAreFought() throws Exception {
+	MvcResult result = mockMvc
+		.perform(MockMvcRequestBuilders.post("/getBattleResult/stream")
+			.content(asJsonString(new Integer[] { 3, 4 }))
+			.contentType(MediaType.APPLICATION_JSON)
+			.accept(MediaType.TEXT_EVENT_STREAM))
+		.andExpect(MockMvcResultMatchers.request().asyncStarted())
+		.andReturn();
+	// waits for the emitter to complete
+	result.getAsyncResult();
+	String events = result.getResponse().getContentAsString();
+	assertThat(events, allOf(startsWith("event:rounds\n"),
+		containsString("\"Rounds\":\"D\""),
+		containsString("\"DecepticonWins\":1"),
+		containsString("event:result\n"),
+		containsString("Winning team (DECEPTICONS) : Soundwave")));
+	assertThat(events.indexOf("event:rounds"),
+		lessThan(events.indexOf("event:result")));
+    }
+
+    @Test
+    public void cancelTheBattleOfARequestThatTimedOut() throws Exception {
+	Instant since = Instant.now();
+	CountDownLatch release = new CountDownLatch(1);
+	// every thread of the pool is busy, so the battle waits in the queue
+	List<CompletableFuture<Boolean>> busy = new ArrayList<>();
+	for (int i = 0; i < properties.getBattlePool().getThreads(); i++) {
+	    busy.add(battles.submit(() -> {
+		try {
+		    return release.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+		    throw new IllegalStateException(e);
+		}
+	    }));
+	}
+	try {
+	    MvcResult result = mockMvc
+		    .perform(MockMvcRequestBuilders.post("/getBattleResult")
+			    .content(asJsonString(new Integer[] { 5, 3, 4 }))
+			    .contentType(MediaType.APPLICATION_JSON)
+			    .accept(MediaType.APPLICATION_JSON))
+		    .andExpect(MockMvcResultMatchers.request().asyncStarted())
+		    .andReturn();
+	    // what the container does once spring.mvc.async.request-timeout
+	    // is over
+	    MockAsyncContext context = (MockAsyncContext) result.getRequest()
+		    .getAsyncContext();
+	    for (AsyncListener listener : context.getListeners()) {
+		listener.onTimeout(new AsyncEvent(context));
+	    }
+	    mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+		    .andExpect(status().isServiceUnavailable());
+	} finally {
+	    release.countDown();
+	}
+	for (CompletableFuture<Boolean> battle : busy) {
+	    battle.get(5, TimeUnit.SECONDS);
+	}
+	// the cancelled battle left the queue before this one
+	battles.submit(() -> true).get(5, TimeUnit.SECONDS);
+	history.flush();
+
+	mockMvc.perform(MockMvcRequestBuilders.get("/battles?since=" + since)
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$._embedded")
+			.doesNotExist());
+    }
+
+    @Test
+    public void exposeTimersOfTheCallsAndTheBattlePhases() throws Exception {
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers/2")
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
+	performBattle(MockMvcRequestBuilders.post("/getBattleResult")
+		.content(asJsonString(new Integer[] { 2, 4, 5 }))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isOk());
+	mockMvc.perform(MockMvcRequestBuilders.get("/actuator/prometheus"))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.content().string(allOf(
+			containsString("transformers_service_seconds_count"),
+			containsString("transformers_repository_seconds_count"),
+			containsString("transformers_assembler_seconds_count"),
+			containsString("transformers_battle_phase_seconds_bucket"),
+			containsString("transformers_battle_size_count"),
+			containsString("http_server_requests_seconds_bucket"))));
+    }
+
+    @DirtiesContext
+    @Test
+    public void keepEveryBattleInTheHistory() throws Exception {
+	Instant since = Instant.now();
+	performBattle(MockMvcRequestBuilders.post("/getBattleResult")
+		.content(asJsonString(new Integer[] { 5, 3, 4 }))
+		.contentType(MediaType.APPLICATION_JSON)
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isOk());
+	// the battles are written in the background
+	history.flush();
+
+	String page = mockMvc
+		.perform(MockMvcRequestBuilders.get("/battles?since=" + since)
+			.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.battleList.length()").value(1))
+		.andExpect(MockMvcResultMatchers
+			.jsonPath("$._embedded.battleList[0].rounds").value("D"))
+		.andReturn().getResponse().getContentAsString();
+	String self = JsonPath.read(page,
+		"$._embedded.battleList[0]._links.self.href");
+	mockMvc.perform(MockMvcRequestBuilders.get(self)
+		.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.jsonPath("$.winner")
+			.value("Winning team (DECEPTICONS) : Soundwave"))
+		.andExpect(MockMvcResultMatchers.jsonPath("$.survivors").value(
+			"Survivors from losing team (AUTOBOTS): Bluestreak"));
+	mockMvc.perform(MockMvcRequestBuilders.get("/battles/999999")
+		.accept(MediaType.APPLICATION_JSON))
+		.andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void answerInCborWhenAskedTo() throws Exception {
+	ObjectMapper cbor = cborConfig.getObjectMapper();
+	byte[] transformer = mockMvc
+		.perform(MockMvcRequestBuilders.get("/transformers/2")
+			.accept(CborConfig.CBOR))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.content()
+			.contentTypeCompatibleWith(CborConfig.CBOR))
+		.andReturn().getResponse().getContentAsByteArray();
+	JsonNode predaking = cbor.readTree(transformer);
+	assertEquals("Predaking", predaking.get("name").asText());
+	assertThat(predaking.at("/_links/self/href").asText(),
+		endsWith("/transformers/2"));
+
+	byte[] battle = performBattle(MockMvcRequestBuilders
+		.post("/getBattleResult")
+		.content(cbor.writeValueAsBytes(new Integer[] { 5, 3, 4 }))
+		.contentType(CborConfig.CBOR).accept(CborConfig.CBOR))
+		.andExpect(status().isOk()).andReturn().getResponse()
+		.getContentAsByteArray();
+	assertEquals("Winning team (DECEPTICONS) : Soundwave",
+		cbor.readTree(battle).at("/content/Winner").asText());
+
+	// JSON is still the default
+	mockMvc.perform(MockMvcRequestBuilders.get("/transformers/2"))
+		.andExpect(status().isOk())
+		.andExpect(MockMvcResultMatchers.content()
+			.contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+    }
+
+    // the battle endpoints answer asynchronously, the response is dispatched
+    // once the battle is over
+    private ResultActions performBattle(MockHttpServletRequestBuilder request)
+	    throws Exception {
+	MvcResult result = mockMvc.perform(request)
+		.andExpect(MockMvcResultMatchers.request().asyncStarted())
+		.andReturn();
+	return mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result));
+    }
+
     public static String asJsonString(final Object obj) {
 	try {
 	    return new ObjectMapper().writeValueAsString(obj);
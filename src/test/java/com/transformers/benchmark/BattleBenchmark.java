@@ -0,0 +1,59 @@
+package com.transformers.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.transformers.models.Transformer;
+import com.transformers.services.TransformerService;
+
+// Measures TransformerService.getBattleResult end to end (sort, fights and
+// final result) for different roster sizes and team ratios. Run with
+// mvn test -Pbenchmark; the gc profiler reports the allocation rate per op.
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BattleBenchmark {
+
+    @Param({ "2", "100", "10000", "1000000" })
+    public int rosterSize;
+
+    // share of autobots in the roster, the rest are decepticons
+    @Param({ "0.5", "0.1" })
+    public double autobotShare;
+
+    // whether Optimus Prime and Predaking take part in the battle
+    @Param({ "false", "true" })
+    public boolean legends;
+
+    private TransformerService service;
+    private List<Integer> ids;
+
+    @Setup
+    public void setUp() {
+	List<Transformer> roster = Rosters.generate(rosterSize, autobotShare,
+		legends, 42L);
+	service = new TransformerService(Rosters.repositoryOf(roster));
+	ids = Rosters.idsOf(roster);
+    }
+
+    @Benchmark
+    public HashMap<String, String> getBattleResult() {
+	return service.getBattleResult(ids);
+    }
+}
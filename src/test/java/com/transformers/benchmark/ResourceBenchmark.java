@@ -0,0 +1,96 @@
+package com.transformers.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.hateoas.Resource;
+import org.springframework.hateoas.core.DefaultRelProvider;
+import org.springframework.hateoas.hal.Jackson2HalModule;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.transformers.controller.TransformerController;
+import com.transformers.models.Transformer;
+import com.transformers.services.TransformerResourceAssembler;
+import com.transformers.services.TransformerService;
+
+// Measures the HATEOAS wrapping of a single transformer and the HAL+JSON
+// rendering of GET /transformers for different roster sizes.
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResourceBenchmark {
+
+    @Param({ "1", "100", "10000" })
+    public int rosterSize;
+
+    private static final List<String> FIELDS = Arrays.asList("id", "name",
+	    "rank");
+
+    private Transformer transformer;
+    private TransformerResourceAssembler assembler;
+    private TransformerController controller;
+    private ObjectMapper halMapper;
+    // without If-None-Match, every call renders the roster
+    private WebRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setUp() {
+	List<Transformer> roster = Rosters.generate(rosterSize, 0.5, false,
+		42L);
+	transformer = roster.get(0);
+	assembler = new TransformerResourceAssembler();
+	// the export, import and battle collaborators are not used here
+	controller = new TransformerController(
+		new TransformerService(Rosters.repositoryOf(roster)),
+		assembler, null, null, null, null, null, null);
+	// same setup as the HAL message converter registered by spring
+	// hateoas
+	halMapper = new ObjectMapper();
+	halMapper.registerModule(new Jackson2HalModule());
+	halMapper.setHandlerInstantiator(
+		new Jackson2HalModule.HalHandlerInstantiator(
+			new DefaultRelProvider(), null, null));
+	request = new ServletWebRequest(new MockHttpServletRequest());
+	response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public Resource<Transformer> toResource() {
+	return assembler.toResource(transformer);
+    }
+
+    @Benchmark
+    public byte[] getAllTransformersAsJson() throws JsonProcessingException {
+	return halMapper.writeValueAsBytes(
+		controller.getAllTransformers(null, null, null, true, null,
+			request, response));
+    }
+
+    @Benchmark
+    public byte[] getAllTransformersProjectedAsJson()
+	    throws JsonProcessingException {
+	return halMapper.writeValueAsBytes(controller.getAllTransformers(null,
+		null, null, true, FIELDS, request, response));
+    }
+}
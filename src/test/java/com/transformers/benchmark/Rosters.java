@@ -0,0 +1,68 @@
+package com.transformers.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+import com.transformers.models.Transformer;
+import com.transformers.repository.TransformerRepository;
+
+// Fixtures shared by the benchmarks: generated rosters and a repository that
+// serves them from memory so that H2 and JPA don't show up in the numbers.
+final class Rosters {
+
+    private Rosters() {
+    }
+
+    static List<Transformer> generate(int size, double autobotShare,
+	    boolean legends, long seed) {
+	SplittableRandom random = new SplittableRandom(seed);
+	List<Transformer> roster = new ArrayList<>(size);
+	for (int id = 1; id <= size; id++) {
+	    Transformer.TYPE type = random.nextDouble() < autobotShare
+		    ? Transformer.TYPE.AUTOBOT
+		    : Transformer.TYPE.DECEPTICON;
+	    roster.add(new Transformer(id, "Transformer " + id,
+		    attribute(random), attribute(random), attribute(random),
+		    attribute(random), attribute(random), attribute(random),
+		    attribute(random), attribute(random), type));
+	}
+	if (legends && size >= 2) {
+	    // special as if they were saved
+	    roster.set(0, new Transformer(1, "Optimus Prime", 10, 9, 10, 9,
+		    attribute(random), 9, 9, 10, Transformer.TYPE.AUTOBOT));
+	    roster.set(1, new Transformer(2, "Predaking", 10, 9, 10, 9,
+		    attribute(random), 9, 9, 10, Transformer.TYPE.DECEPTICON));
+	    roster.get(0).setSpecial(true);
+	    roster.get(1).setSpecial(true);
+	}
+	return roster;
+    }
+
+    static List<Integer> idsOf(List<Transformer> roster) {
+	return roster.stream().map(Transformer::getId)
+		.collect(Collectors.toList());
+    }
+
+    static TransformerRepository repositoryOf(List<Transformer> roster) {
+	return (TransformerRepository) Proxy.newProxyInstance(
+		TransformerRepository.class.getClassLoader(),
+		new Class<?>[] { TransformerRepository.class },
+		(proxy, method, args) -> {
+		    switch (method.getName()) {
+		    case "findAll":
+		    case "findAllById":
+			return roster;
+		    default:
+			throw new UnsupportedOperationException(
+				method.getName());
+		    }
+		});
+    }
+
+    private static int attribute(SplittableRandom random) {
+	return random.nextInt(1, 11);
+    }
+}
@@ -0,0 +1,93 @@
+package com.transformers.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.hateoas.Resource;
+import org.springframework.hateoas.Resources;
+import org.springframework.hateoas.core.DefaultRelProvider;
+import org.springframework.hateoas.hal.Jackson2HalModule;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.transformers.controller.TransformerController;
+import com.transformers.models.Transformer;
+import com.transformers.services.TransformerResourceAssembler;
+import com.transformers.services.TransformerService;
+
+// Compares the wire formats of GET /transformers: HAL+JSON against the
+// same document in CBOR, written and read back. The size of the payload of
+// each format is printed once per trial.
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    private static final TypeReference<Resources<Resource<Transformer>>> PAGE =
+	    new TypeReference<Resources<Resource<Transformer>>>() {
+	    };
+
+    @Param({ "1", "100", "10000" })
+    public int rosterSize;
+
+    @Param({ "json", "cbor" })
+    public String format;
+
+    private Resources<?> transformers;
+    private ObjectMapper mapper;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws IOException {
+	List<Transformer> roster = Rosters.generate(rosterSize, 0.5, false,
+		42L);
+	// the export, import and battle collaborators are not used here
+	TransformerController controller = new TransformerController(
+		new TransformerService(Rosters.repositoryOf(roster)),
+		new TransformerResourceAssembler(), null, null, null, null,
+		null, null);
+	transformers = controller.getAllTransformers(null, null, null, true,
+		null, new ServletWebRequest(new MockHttpServletRequest()),
+		new MockHttpServletResponse());
+	// same HAL setup as the message converters, only the encoding differs
+	mapper = new ObjectMapper(
+		"cbor".equals(format) ? new CBORFactory() : new JsonFactory());
+	mapper.registerModule(new Jackson2HalModule());
+	mapper.setHandlerInstantiator(
+		new Jackson2HalModule.HalHandlerInstantiator(
+			new DefaultRelProvider(), null, null));
+	payload = mapper.writeValueAsBytes(transformers);
+	System.out.println(format + " payload of " + rosterSize
+		+ " transformers: " + payload.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+	return mapper.writeValueAsBytes(transformers);
+    }
+
+    @Benchmark
+    public Resources<Resource<Transformer>> read() throws IOException {
+	return mapper.readValue(payload, PAGE);
+    }
+}
@@ -0,0 +1,320 @@
+package com.transformers.service.test;
+
+import static com.transformers.models.Transformer.TYPE.AUTOBOT;
+import static com.transformers.models.Transformer.TYPE.DECEPTICON;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.transformers.TransformerProperties;
+import com.transformers.models.SpecialRoles;
+import com.transformers.models.Transformer;
+import com.transformers.services.BattleEngine;
+import com.transformers.services.RosterSnapshot;
+
+// Runs random battles through the BattleEngine, from entities and from a
+// roster snapshot, and through a copy of the original HashMap based
+// implementation of getBattleResult and checks that all give the same
+// response. The special roles are resolved as if the transformers were
+// saved.
+public class BattleEngineDifferentialTest {
+    private static final SpecialRoles ROLES = new SpecialRoles(
+	    new TransformerProperties());
+
+    private final Random random = new Random(2019);
+
+    @Test
+    public void sameResultsAsTheOriginalImplementation() {
+	for (int battle = 0; battle < 5000; battle++) {
+	    List<Transformer> transformers = randomTransformers(
+		    random.nextInt(120), battle % 3 == 0);
+	    HashMap<String, String> expected = LegacyBattle
+		    .getBattleResult(transformers);
+	    assertEquals("battle " + battle + " " + transformers, expected,
+		    BattleEngine.battle(transformers));
+	    assertEquals("snapshot battle " + battle + " " + transformers,
+		    expected, BattleEngine.battle(
+			    RosterSnapshot.of(transformers), idsOf(transformers)));
+	}
+    }
+
+    @Test
+    public void sameResultsForSmallTeamsWithEqualRatings() {
+	// narrow attribute ranges give plenty of ties and equal matches
+	for (int battle = 0; battle < 5000; battle++) {
+	    List<Transformer> transformers = new ArrayList<>();
+	    int size = random.nextInt(8);
+	    for (int id = 1; id <= size; id++) {
+		transformers.add(new Transformer(id, "Transformer " + id,
+			5 + random.nextInt(2), 5, 5 + random.nextInt(2), 5,
+			1 + random.nextInt(3), 5, 5, 5 + random.nextInt(2),
+			random.nextBoolean() ? AUTOBOT : DECEPTICON));
+	    }
+	    transformers.forEach(ROLES::resolve);
+	    assertEquals("battle " + battle + " " + transformers,
+		    LegacyBattle.getBattleResult(transformers),
+		    BattleEngine.battle(transformers));
+	}
+    }
+
+    @Test
+    public void sameResultsForMassiveBattles() {
+	// large enough to be fought in parallel chunks. The ranks grow with
+	// the ids within each team, so the fighters meet in the order they
+	// were created and the game can be destroyed at a chosen round.
+	for (int battle = 0; battle < 12; battle++) {
+	    int autobots = 50_000 + random.nextInt(50_000);
+	    int decepticons = 50_000 + random.nextInt(50_000);
+	    int destroyedAt = battle % 3 == 0 ? -1
+		    : random.nextInt(Math.min(autobots, decepticons));
+	    List<Transformer> transformers = new ArrayList<>();
+	    int autobot = 0;
+	    int decepticon = 0;
+	    while (autobot < autobots || decepticon < decepticons) {
+		boolean isAutobot = decepticon == decepticons
+			|| autobot < autobots && random.nextBoolean();
+		int index = isAutobot ? autobot++ : decepticon++;
+		int size = isAutobot ? autobots : decepticons;
+		String name = "Transformer " + (transformers.size() + 1);
+		if (index == destroyedAt) {
+		    name = isAutobot ? "Optimus Prime" : "Predaking";
+		} else if (random.nextInt(20_000) == 0) {
+		    // wins its round
+		    name = isAutobot ? "Optimus Prime" : "Predaking";
+		}
+		transformers.add(new Transformer(transformers.size() + 1, name,
+			attribute(), attribute(), attribute(), attribute(),
+			1 + index * 10 / size, attribute(), attribute(),
+			attribute(), isAutobot ? AUTOBOT : DECEPTICON));
+	    }
+	    transformers.forEach(ROLES::resolve);
+	    HashMap<String, String> expected = LegacyBattle
+		    .getBattleResult(transformers);
+	    assertEquals("battle " + battle, expected,
+		    BattleEngine.battle(transformers));
+	    assertEquals("snapshot battle " + battle, expected,
+		    BattleEngine.battle(RosterSnapshot.of(transformers),
+			    idsOf(transformers)));
+	}
+    }
+
+    // the ids of the transformers in a random order, with duplicates and
+    // ids that were never saved
+    private List<Integer> idsOf(List<Transformer> transformers) {
+	List<Integer> ids = new ArrayList<>();
+	for (Transformer transformer : transformers) {
+	    ids.add(transformer.getId());
+	    if (random.nextInt(10) == 0) {
+		ids.add(transformer.getId());
+	    }
+	}
+	ids.add(transformers.size() + 1);
+	Collections.shuffle(ids, random);
+	return ids;
+    }
+
+    private List<Transformer> randomTransformers(int size, boolean legends) {
+	List<Transformer> transformers = new ArrayList<>();
+	for (int id = 1; id <= size; id++) {
+	    String name = "Transformer " + id;
+	    Transformer.TYPE type = random.nextBoolean() ? AUTOBOT
+		    : DECEPTICON;
+	    if (legends && random.nextInt(10) == 0) {
+		// of either type, only one of them is special
+		type = random.nextBoolean() ? AUTOBOT : DECEPTICON;
+		name = random.nextBoolean() ? "Optimus Prime" : "Predaking";
+	    }
+	    transformers.add(new Transformer(id, name, attribute(),
+		    attribute(), attribute(), attribute(), attribute(),
+		    attribute(), attribute(), attribute(), type));
+	}
+	transformers.forEach(ROLES::resolve);
+	return transformers;
+    }
+
+    private int attribute() {
+	return 1 + random.nextInt(10);
+    }
+
+    // getBattleResult as it was before the BattleEngine, minus the
+    // repository lookup
+    private static class LegacyBattle {
+	private static final String decepticonsStr = "DECEPTICONS";
+	private static final String autobotsStr = "AUTOBOTS";
+
+	static HashMap<String, String> getBattleResult(
+		List<Transformer> transformers) {
+	    HashMap<String, String> res = new HashMap<>();
+	    if (transformers.size() < 2) {
+		res.put("Error", "2 or more valid ids required");
+		return res;
+	    }
+	    List<Transformer> autobots = getTransfromersByTypeSortedByRank(
+		    transformers, AUTOBOT);
+	    List<Transformer> decepticons = getTransfromersByTypeSortedByRank(
+		    transformers, DECEPTICON);
+
+	    String survivors = "No survivors";
+
+	    res = calculateWinner(autobots, decepticons);
+	    if (res.get("HasGameBeenDestoryed") == "NO") {
+		if (res.get("Winner").contains(decepticonsStr)
+			&& autobots.size() > decepticons.size()) {
+		    survivors = getSurvivorNames(autobots, decepticons.size(),
+			    autobotsStr);
+		} else if (res.get("Winner").contains(autobotsStr)
+			&& decepticons.size() > autobots.size()) {
+		    survivors = getSurvivorNames(decepticons, autobots.size(),
+			    decepticonsStr);
+		}
+	    } else {
+		res.replace("Winner", "Everyone was destroyed");
+	    }
+	    res.put("Survivors", survivors);
+	    res.remove("HasGameBeenDestoryed");
+	    return res;
+	}
+
+	private static List<Transformer> getTransfromersByTypeSortedByRank(
+		List<Transformer> transformers, Transformer.TYPE type) {
+	    return transformers.stream().filter(t -> t.getType() == type)
+		    .sorted((t1, t2) -> Integer.compare(t1.getRank(),
+			    t2.getRank()))
+		    .collect(Collectors.toList());
+	}
+
+	private static String getSurvivorNames(List<Transformer> list,
+		int startingIndex, String teamName) {
+	    String acc = "Survivors from losing team (" + teamName + "): ";
+	    return list.subList(startingIndex, list.size()).stream()
+		    .map(t -> t.getName() + " ").reduce(acc, String::concat)
+		    .trim();
+	}
+
+	private static HashMap<String, String> calculateWinner(
+		List<Transformer> autobots, List<Transformer> decepticons) {
+	    HashMap<String, Integer> battlesResult = new HashMap<>();
+	    battlesResult.put(decepticonsStr, 0);
+	    battlesResult.put(autobotsStr, 0);
+	    battlesResult.put("HasGameBeenDestoryed", 0);
+	    battlesResult.put("NumberOfBattles", 0);
+
+	    return beginFights(battlesResult, autobots, decepticons);
+	}
+
+	private static HashMap<String, String> beginFights(
+		HashMap<String, Integer> battlesResult,
+		List<Transformer> autobots, List<Transformer> decepticons) {
+	    for (int index = 0; index < Math.min(autobots.size(),
+		    decepticons.size()); index++) {
+		if (battlesResult.get("HasGameBeenDestoryed") == 0) {
+		    Transformer autobot = autobots.get(index);
+		    Transformer decepticon = decepticons.get(index);
+
+		    int courageDifference = autobot.getCourage()
+			    - decepticon.getCourage();
+		    int strengthDifference = autobot.getStrength()
+			    - decepticon.getStrength();
+		    int skillDifference = autobot.getSkill()
+			    - decepticon.getSkill();
+
+		    if (autobot.getName() == "Optimus Prime"
+			    && decepticon.getName() == "Predaking") {
+			battlesResult.replace("HasGameBeenDestoryed", 1);
+			battlesResult.replace("NumberOfBattles",
+				battlesResult.get("NumberOfBattles") + 1);
+			break;
+		    } else if (autobot.getName() == "Optimus Prime"
+			    && decepticon.getName() != "Predaking") {
+			battlesResult.merge(autobotsStr, 1, Integer::sum);
+		    } else if (decepticon.getName() == "Predaking"
+			    && autobot.getName() != "Optimus Prime") {
+			battlesResult.merge(decepticonsStr, 1, Integer::sum);
+		    } else if (courageDifference >= 4
+			    || strengthDifference >= 3
+			    || skillDifference >= 3) {
+			battlesResult.merge(autobotsStr, 1, Integer::sum);
+		    } else if (courageDifference <= -4
+			    || strengthDifference <= -3
+			    || skillDifference <= -3) {
+			battlesResult.merge(decepticonsStr, 1, Integer::sum);
+		    } else if (autobot.getOverallRating() > decepticon
+			    .getOverallRating()) {
+			battlesResult.merge(autobotsStr, 1, Integer::sum);
+		    } else if (decepticon.getOverallRating() > autobot
+			    .getOverallRating()) {
+			battlesResult.merge(decepticonsStr, 1, Integer::sum);
+		    }
+		    battlesResult.replace("NumberOfBattles",
+			    battlesResult.get("NumberOfBattles") + 1);
+		}
+	    }
+	    return getFinalResult(battlesResult, autobots, decepticons);
+	}
+
+	private static HashMap<String, String> getFinalResult(
+		HashMap<String, Integer> battlesResult,
+		List<Transformer> autobots, List<Transformer> decepticons) {
+	    HashMap<String, String> result = new HashMap<>();
+	    result.put("Winner",
+		    battlesResult.get("NumberOfBattles") == 0
+			    ? "No battles fought"
+			    : "Equal matches won by both teams");
+	    result.put("NumberOfBattles",
+		    battlesResult.get("NumberOfBattles").toString()
+			    + " battle");
+	    result.put("HasGameBeenDestoryed",
+		    battlesResult.get("HasGameBeenDestoryed") == 0 ? "NO"
+			    : "YES");
+
+	    Transformer maxAutobot = getMaxTransformer(autobots);
+	    Transformer maxDecepticon = getMaxTransformer(decepticons);
+
+	    if (maxAutobot != null && maxDecepticon != null) {
+		String autobotsWon = "Winning team (" + autobotsStr + ") : "
+			+ maxAutobot.getName();
+		String decepticonsWon = "Winning team (" + decepticonsStr
+			+ ") : " + maxDecepticon.getName();
+
+		// compared with equals, the original compared the boxed
+		// counts with == which only held below 128
+		boolean equalMatchesWon = battlesResult.get(autobotsStr)
+			.equals(battlesResult.get(decepticonsStr));
+		boolean autobotsWonGreaterMatches = battlesResult
+			.get(autobotsStr) > battlesResult.get(decepticonsStr);
+		boolean decepticonsWonGreaterMatches = battlesResult
+			.get(decepticonsStr) > battlesResult.get(autobotsStr);
+		if (equalMatchesWon) {
+		    if (maxAutobot.getOverallRating() > maxDecepticon
+			    .getOverallRating()) {
+			result.replace("Winner", autobotsWon);
+		    } else if (maxDecepticon.getOverallRating() > maxAutobot
+			    .getOverallRating()) {
+			result.replace("Winner", decepticonsWon);
+		    }
+		} else if (autobotsWonGreaterMatches) {
+		    result.replace("Winner", autobotsWon);
+		} else if (decepticonsWonGreaterMatches) {
+		    result.replace("Winner", decepticonsWon);
+		}
+	    }
+
+	    return result;
+	}
+
+	private static Transformer getMaxTransformer(
+		List<Transformer> transformers) {
+	    return transformers.stream()
+		    .max(Comparator.comparing(Transformer::getOverallRating))
+		    .orElse(null);
+	}
+    }
+}
@@ -1,26 +1,61 @@
 package com.transformers.service.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.springframework.data.domain.Pageable;
+import org.springframework.util.unit.DataSize;
 
+import com.transformers.TransformerProperties;
+import com.transformers.exceptions.BattleQueueFullException;
+import com.transformers.exceptions.TransformerNotFoundException;
+import com.transformers.exceptions.TransformerVersionMismatchException;
+import com.transformers.models.Battle;
 import com.transformers.models.Transformer;
+import com.transformers.repository.BattleRepository;
 import com.transformers.repository.TransformerRepository;
+import com.transformers.services.BattleEngine;
+import com.transformers.services.BattleExecutor;
+import com.transformers.services.BattleHistory;
+import com.transformers.services.Lineup;
+import com.transformers.services.RosterSnapshot;
+import com.transformers.services.RosterSnapshotHolder;
+import com.transformers.services.Tournament;
 import com.transformers.services.TransformerService;
 
 public class ServiceUnitTests {
@@ -36,6 +71,18 @@ public class ServiceUnitTests {
 	service = new TransformerService(repository);
     }
 
+    // a service of its own for the tests that change the roster, over a
+    // repository whose findAll gives initialRoster()
+    private TransformerRepository rosterRepository;
+    private TransformerService rosterService;
+
+    @Before
+    public void initRoster() {
+	rosterRepository = Mockito.mock(TransformerRepository.class);
+	rosterService = new TransformerService(rosterRepository);
+	when(rosterRepository.findAll()).thenReturn(initialRoster());
+    }
+
     private Transformer initialize() {
 	Transformer transformer = new Transformer(1, "Optimus Prime", 10, 9, 10, 9,
 		1, 9, 9, 10, Transformer.TYPE.AUTOBOT);
@@ -76,6 +123,50 @@ public class ServiceUnitTests {
 	assertEquals(9, newT.getRank());
     }
 
+    @Test(expected = TransformerVersionMismatchException.class)
+    public void updateTransformerWithAStaleVersion() {
+	Transformer savedTransformer = initialize();
+	when(repository.updateIfVersion(eq(savedTransformer.getId()), eq(3),
+		any(Transformer.class))).thenReturn(0);
+	service.updateTransformerIfVersion(savedTransformer,
+		savedTransformer.getId(), 3);
+    }
+
+    @Test
+    public void updatesResolveTheSpecialRoleFromTheNameAndType() {
+	when(repository.updateIfVersion(eq(7), eq(0), any(Transformer.class)))
+		.thenReturn(1);
+	Transformer predaking = service.updateTransformerIfVersion(
+		new Transformer(7, new String("Predaking"), 10, 9, 10, 9, 1, 9,
+			9, 10, Transformer.TYPE.DECEPTICON), 7, 0);
+	assertTrue(predaking.isSpecial());
+	Transformer impostor = service.updateTransformerIfVersion(
+		new Transformer(7, "Predaking", 10, 9, 10, 9, 1, 9, 9, 10,
+			Transformer.TYPE.AUTOBOT), 7, 0);
+	assertFalse(impostor.isSpecial());
+    }
+
+    @Test
+    public void leaderboardFollowsTheSavesWithoutQueryingAgain() {
+	Transformer hubcap = new Transformer(5, "Hubcap", 4, 4, 4, 4, 4, 4, 4,
+		4, Transformer.TYPE.AUTOBOT);
+	when(rosterRepository.findByTypeOrderByOverallRatingDescIdAsc(
+		eq(Transformer.TYPE.AUTOBOT), any(Pageable.class)))
+			.thenReturn(Arrays.asList(hubcap));
+	assertEquals(Arrays.asList(hubcap),
+		rosterService.getTopTransformers(3, Transformer.TYPE.AUTOBOT));
+
+	Transformer jazz = new Transformer(6, "Jazz", 6, 7, 8, 6, 5, 8, 6, 8,
+		Transformer.TYPE.AUTOBOT);
+	when(rosterRepository.save(jazz)).thenReturn(jazz);
+	rosterService.createTransformer(jazz);
+	assertEquals(Arrays.asList(jazz, hubcap),
+		rosterService.getTopTransformers(3, Transformer.TYPE.AUTOBOT));
+	verify(rosterRepository, times(1))
+		.findByTypeOrderByOverallRatingDescIdAsc(
+			eq(Transformer.TYPE.AUTOBOT), any(Pageable.class));
+    }
+
     @Test
     public void getDetailsOfSavedTransformer() {
 	Transformer savedTransformer = initialize();
@@ -86,6 +177,74 @@ public class ServiceUnitTests {
 	assertEquals("Optimus Prime", fetchedTransformer.getName());
     }
 
+    @Test(expected = TransformerNotFoundException.class)
+    public void findByIdIsCachedUntilTheTransformerIsDeleted() {
+	Transformer hubcap = new Transformer(5, "Hubcap", 4, 4, 4, 4, 4, 4, 4,
+		4, Transformer.TYPE.AUTOBOT);
+	when(rosterRepository.findById(5)).thenReturn(Optional.of(hubcap));
+	assertEquals("Hubcap", rosterService.findById(5).getName());
+	assertEquals("Hubcap", rosterService.findById(5).getName());
+	verify(rosterRepository, times(1)).findById(5);
+	assertEquals(1, rosterService.getCacheStats().hitCount());
+
+	when(rosterRepository.findById(5)).thenReturn(Optional.empty());
+	rosterService.delete(5);
+	rosterService.findById(5);
+    }
+
+    @Test
+    public void concurrentLookupsOfOneTransformerMakeOneQuery()
+	    throws Exception {
+	Transformer hubcap = new Transformer(5, "Hubcap", 4, 4, 4, 4, 4, 4, 4,
+		4, Transformer.TYPE.AUTOBOT);
+	when(rosterRepository.findById(6)).thenReturn(Optional.of(hubcap));
+	rosterService.findById(6);
+
+	CountDownLatch release = new CountDownLatch(1);
+	when(rosterRepository.findById(5)).thenAnswer(invocation -> {
+	    await(release);
+	    return Optional.of(hubcap);
+	});
+	List<FutureTask<Transformer>> lookups = callTogether(8,
+		() -> rosterService.findById(5));
+	release.countDown();
+	for (FutureTask<Transformer> lookup : lookups) {
+	    assertEquals("Hubcap", lookup.get(5, TimeUnit.SECONDS).getName());
+	}
+	verify(rosterRepository, times(1)).findById(5);
+    }
+
+    @Test
+    public void callersThatJoinedALookupGetItsFailure() throws Exception {
+	Transformer hubcap = new Transformer(5, "Hubcap", 4, 4, 4, 4, 4, 4, 4,
+		4, Transformer.TYPE.AUTOBOT);
+	when(rosterRepository.findById(6)).thenReturn(Optional.of(hubcap));
+	rosterService.findById(6);
+
+	CountDownLatch release = new CountDownLatch(1);
+	when(rosterRepository.findById(5)).thenAnswer(invocation -> {
+	    await(release);
+	    throw new IllegalStateException("connection refused");
+	});
+	List<FutureTask<Transformer>> lookups = callTogether(8,
+		() -> rosterService.findById(5));
+	release.countDown();
+	for (FutureTask<Transformer> lookup : lookups) {
+	    try {
+		lookup.get(5, TimeUnit.SECONDS);
+		fail("the lookup failed");
+	    } catch (ExecutionException e) {
+		assertTrue(e.getCause() instanceof IllegalStateException);
+	    }
+	}
+	verify(rosterRepository, times(1)).findById(5);
+
+	// the failure is not kept, the next lookup queries again
+	Mockito.doReturn(Optional.of(hubcap)).when(rosterRepository)
+		.findById(5);
+	assertEquals("Hubcap", rosterService.findById(5).getName());
+    }
+
     @Test
     public void deleteTransformerById() {
 	Transformer savedTransformer = initialize();
@@ -120,11 +279,404 @@ public class ServiceUnitTests {
 	transformers.add(soundwave);
 	transformers.add(bluestreak);
 
-	when(repository.findAllById(anyList())).thenReturn(transformers);
+	// battles read the roster snapshot, which is loaded with findAll
+	when(repository.findAll()).thenReturn(transformers);
 	HashMap<String, String> result = service.getBattleResult(ids);
 	assertEquals("No survivors", result.get("Survivors"));
 	assertEquals("1 battle", result.get("NumberOfBattles"));
 	assertEquals("Winning team (AUTOBOTS) : Optimus Prime", result.get("Winner"));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void getBattleResultsReadTheRosterOnce() {
+
+	List<List<Integer>> matchups = Arrays.asList(Arrays.asList(1, 3, 4),
+		Arrays.asList(4, 3), Arrays.asList(4, 12));
+	rosterService.getBattleResults(matchups);
+	List<HashMap<String, String>> results = rosterService
+		.getBattleResults(matchups);
+	verify(rosterRepository, times(1)).findAll();
+	verify(rosterRepository, never()).findAllById(anyList());
+	assertEquals(3, results.size());
+	assertEquals("Winning team (AUTOBOTS) : Optimus Prime",
+		results.get(0).get("Winner"));
+	assertEquals("Winning team (DECEPTICONS) : Soundwave",
+		results.get(1).get("Winner"));
+	assertEquals("2 or more valid ids required",
+		results.get(2).get("Error"));
+    }
+
+    @Test
+    public void battlesSeeCommittedChangesToTheRoster() {
+	List<Transformer> roster = initialRoster();
+	Transformer optimus = roster.remove(0);
+	when(rosterRepository.findAll()).thenReturn(roster);
+	List<Integer> ids = Arrays.asList(1, 3, 4);
+	assertEquals("Winning team (DECEPTICONS) : Soundwave",
+		rosterService.getBattleResult(ids).get("Winner"));
+
+	when(rosterRepository.save(any(Transformer.class)))
+		.thenReturn(optimus);
+	rosterService.createTransformer(optimus);
+	assertEquals("Winning team (AUTOBOTS) : Optimus Prime",
+		rosterService.getBattleResult(ids).get("Winner"));
+
+	rosterService.delete(optimus.getId());
+	assertEquals("Winning team (DECEPTICONS) : Soundwave",
+		rosterService.getBattleResult(ids).get("Winner"));
+	verify(rosterRepository, times(1)).findAll();
+    }
+
+    @Test
+    public void anOlderVersionCommittedLastDoesNotReplaceTheNewerOne() {
+	RosterSnapshotHolder roster = new RosterSnapshotHolder(
+		rosterRepository);
+	roster.current();
+	Transformer older = new Transformer(4, "Bluestreak", 6, 6, 7, 9, 5, 2,
+		9, 7, Transformer.TYPE.AUTOBOT);
+	older.setVersion(1);
+	Transformer newer = new Transformer(4, "Bluestreak", 10, 10, 10, 10,
+		5, 10, 10, 10, Transformer.TYPE.AUTOBOT);
+	newer.setVersion(2);
+	// the commit of the update to version 2 finishes first
+	roster.saved(newer);
+	roster.saved(older);
+	assertEquals("Winning team (AUTOBOTS) : Bluestreak", BattleEngine
+		.battle(roster.current(), Arrays.asList(3, 4)).get("Winner"));
+
+	// nor does a save that finishes after the delete
+	roster.deleted(4);
+	roster.saved(newer);
+	assertFalse(roster.current().contains(4));
+    }
+
+    @Test
+    public void aChangedSnapshotLeavesTheOldOneAsItWas() {
+	RosterSnapshot before = RosterSnapshot.of(initialRoster());
+	// far enough from the others to need chunks of its own
+	Transformer ravage = new Transformer(100000, "Ravage", 10, 5, 0,
+		8, 7, 9, 9, 8, Transformer.TYPE.DECEPTICON);
+	RosterSnapshot after = before.with(Arrays.asList(ravage),
+		Arrays.asList(3));
+	assertTrue(after.contains(100000));
+	assertFalse(after.contains(3));
+	assertEquals(3, after.size());
+	assertEquals("Winning team (DECEPTICONS) : Ravage", BattleEngine
+		.battle(after, Arrays.asList(4, 100000)).get("Winner"));
+
+	assertFalse(before.contains(100000));
+	assertTrue(before.contains(3));
+	assertEquals(3, before.size());
+	assertEquals("Winning team (AUTOBOTS) : Optimus Prime", BattleEngine
+		.battle(before, Arrays.asList(1, 3)).get("Winner"));
+    }
+
+    @Test
+    public void battleResultsAreMemoizedUntilAParticipantChanges() {
+	HashMap<String, String> result = rosterService
+		.getBattleResult(Arrays.asList(4, 3));
+	assertEquals("Winning team (DECEPTICONS) : Soundwave",
+		result.get("Winner"));
+	// every caller gets its own copy of the memoized result
+	result.put("Winner", "Nobody");
+	assertEquals("Winning team (DECEPTICONS) : Soundwave", rosterService
+		.getBattleResult(Arrays.asList(3, 4, 3)).get("Winner"));
+
+	Transformer bluestreak = new Transformer(4, "Bluestreak", 10, 6, 7, 9,
+		5, 10, 9, 10, Transformer.TYPE.AUTOBOT);
+	bluestreak.setVersion(1);
+	when(rosterRepository.findById(4))
+		.thenReturn(Optional.of(initialRoster().get(2)));
+	when(rosterRepository.save(any(Transformer.class)))
+		.thenReturn(bluestreak);
+	rosterService.updateOrCreateTransformer(bluestreak, 4);
+	assertEquals("Winning team (AUTOBOTS) : Bluestreak", rosterService
+		.getBattleResult(Arrays.asList(4, 3)).get("Winner"));
+	verify(rosterRepository, times(1)).findAll();
+    }
+
+    @Test
+    public void battlesAreFoughtByTheReloadedRules() {
+	List<Integer> ids = Arrays.asList(4, 3);
+	// Soundwave is 3 ahead in skill
+	assertEquals("Winning team (DECEPTICONS) : Soundwave",
+		rosterService.getBattleResult(ids).get("Winner"));
+
+	TransformerProperties.BattleRules rules =
+		new TransformerProperties.BattleRules();
+	rules.setSkill(4);
+	assertEquals(4, rosterService.updateBattleRules(rules).getSkill());
+	assertEquals(4, rosterService.getBattleRules().getSkill());
+	// no margin is reached any more, Bluestreak has the higher rating
+	assertEquals("Winning team (AUTOBOTS) : Bluestreak",
+		rosterService.getBattleResult(ids).get("Winner"));
+
+	rosterService
+		.updateBattleRules(new TransformerProperties.BattleRules());
+	assertEquals("Winning team (DECEPTICONS) : Soundwave",
+		rosterService.getBattleResult(ids).get("Winner"));
+    }
+
+    @Test
+    public void everyTeamOfARoundRobinFightsOnBothSides() {
+	LinkedHashMap<String, List<Integer>> teams = new LinkedHashMap<>();
+	for (int team = 0; team < 6; team++) {
+	    teams.put("Team " + team, Arrays.asList(1 + team % 3 * 2));
+	}
+	HashMap<String, Object> tournament = rosterService
+		.getTournamentResults(teams, Tournament.MODE.ROUND_ROBIN);
+	// home fights as the autobots, away as the decepticons
+	HashMap<String, int[]> sides = new HashMap<>();
+	for (Object match : (List<?>) tournament.get("Matches")) {
+	    List<?> pairing = (List<?>) ((Map<?, ?>) match).get("Teams");
+	    sides.computeIfAbsent((String) pairing.get(0),
+		    team -> new int[2])[0]++;
+	    sides.computeIfAbsent((String) pairing.get(1),
+		    team -> new int[2])[1]++;
+	}
+	assertEquals(teams.keySet(), sides.keySet());
+	for (int[] homeAndAway : sides.values()) {
+	    assertEquals(5, homeAndAway[0] + homeAndAway[1]);
+	    assertEquals(1, Math.abs(homeAndAway[0] - homeAndAway[1]));
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void simulationsWithTheSameSeedGiveTheSameOdds() {
+	// Soundwave against either Optimus Prime or Bluestreak
+	HashMap<String, Object> odds = rosterService.getSimulationResults(
+		Arrays.asList(3), Transformer.TYPE.AUTOBOT, 1, 2000, 42L);
+	assertEquals(odds, rosterService.getSimulationResults(
+		Arrays.asList(3), Transformer.TYPE.AUTOBOT, 1, 2000, 42L));
+	HashMap<String, Object> autobots = (HashMap<String, Object>) odds
+		.get("AutobotsWin");
+	HashMap<String, Object> decepticons = (HashMap<String, Object>) odds
+		.get("DecepticonsWin");
+	assertEquals(2000L, (long) autobots.get("Count")
+		+ (long) decepticons.get("Count"));
+	double probability = (double) autobots.get("Probability");
+	assertTrue((double) autobots.get("Low") < 0.5
+		&& 0.5 < (double) autobots.get("High"));
+	assertTrue((double) autobots.get("Low") <= probability
+		&& probability <= (double) autobots.get("High"));
+
+	// nothing sampled, every simulation is the same battle
+	odds = rosterService.getSimulationResults(Arrays.asList(3, 4),
+		null, null, 100, null);
+	assertEquals(1.0, ((HashMap<String, Object>) odds
+		.get("DecepticonsWin")).get("Probability"));
+	assertEquals("between 0 and 1 transformers can be sampled",
+		rosterService.getSimulationResults(Arrays.asList(3, 4),
+			null, 2, 100, 1L).get("Error"));
+    }
+
+    @Test
+    public void bestLineupWinsMoreFightsThanTheRankOrder() {
+	List<Transformer> roster = initialRoster();
+	roster.add(new Transformer(5, "Hubcap", 4, 4, 4, 4, 4, 4, 4, 4,
+		Transformer.TYPE.AUTOBOT));
+	roster.add(new Transformer(6, "Scrapper", 2, 2, 2, 2, 1, 2, 2, 2,
+		Transformer.TYPE.DECEPTICON));
+	when(rosterRepository.findAll()).thenReturn(roster);
+	// by rank Optimus Prime meets Scrapper and Hubcap loses to Soundwave
+	HashMap<String, Object> lineup = rosterService.getBestLineup(
+		Arrays.asList(1, 5), Arrays.asList(3, 6), null,
+		Lineup.OBJECTIVE.WINS);
+	assertArrayEquals(new int[] { 5, 1 }, (int[]) lineup.get("Lineup"));
+	assertArrayEquals(new int[] { 6, 3 }, (int[]) lineup.get("Opponents"));
+	assertEquals(2, lineup.get("Won"));
+	assertEquals(0, lineup.get("Lost"));
+
+	// the decepticons can only keep Soundwave away from Optimus Prime,
+	// which leaves the battle to the strongest autobot
+	lineup = rosterService.getBestLineup(Arrays.asList(3, 6),
+		Arrays.asList(1, 5), Transformer.TYPE.DECEPTICON,
+		Lineup.OBJECTIVE.MARGIN);
+	assertArrayEquals(new int[] { 6, 3 }, (int[]) lineup.get("Lineup"));
+	assertEquals(1, lineup.get("Won"));
+	assertEquals(1, lineup.get("Lost"));
+	assertEquals("Winning team (AUTOBOTS) : Optimus Prime",
+		((HashMap<?, ?>) lineup.get("Result")).get("Winner"));
+    }
+
+    @Test
+    public void streamedBattlesStopWhenTheListenerDoes() {
+	List<HashMap<String, Object>> events = new ArrayList<>();
+	HashMap<String, String> result = rosterService
+		.streamBattleResult(Arrays.asList(3, 4), events::add);
+	assertEquals(rosterService.getBattleResult(Arrays.asList(3, 4)),
+		result);
+	assertEquals(1, events.size());
+	assertEquals(1, events.get(0).get("FirstRound"));
+	assertEquals("D", events.get(0).get("Rounds"));
+	assertEquals(1, events.get(0).get("DecepticonWins"));
+
+	// the client went away after the first chunk
+	assertNull(rosterService.streamBattleResult(Arrays.asList(3, 4),
+		progress -> false));
+    }
+
+    @Test
+    public void battlesAreTurnedAwayOnceTheQueueIsFull() throws Exception {
+	TransformerProperties properties = new TransformerProperties();
+	properties.getBattlePool().setThreads(1);
+	properties.getBattlePool().setQueueCapacity(1);
+	BattleExecutor battles = new BattleExecutor(properties);
+	CountDownLatch release = new CountDownLatch(1);
+	try {
+	    CompletableFuture<Boolean> running = battles
+		    .submit(() -> await(release));
+	    CompletableFuture<Boolean> waiting = battles
+		    .submit(() -> await(release));
+	    try {
+		battles.submit(() -> true);
+		fail("the queue is full");
+	    } catch (BattleQueueFullException e) {
+		assertEquals(1, e.getRetryAfter().getSeconds());
+	    }
+	    release.countDown();
+	    assertTrue(running.get(5, TimeUnit.SECONDS));
+	    assertTrue(waiting.get(5, TimeUnit.SECONDS));
+	    assertTrue(battles.submit(() -> true).get(5, TimeUnit.SECONDS));
+	} finally {
+	    release.countDown();
+	    battles.shutdown();
+	}
+    }
+
+    @Test
+    public void theParallelWorkOfABattleStaysOnTheBattlePool()
+	    throws Exception {
+	TransformerProperties properties = new TransformerProperties();
+	properties.getBattlePool().setThreads(2);
+	BattleExecutor battles = new BattleExecutor(properties);
+	try {
+	    List<ForkJoinPool> pools = battles
+		    .submit(() -> IntStream.range(0, 64).parallel()
+			    .mapToObj(i -> ForkJoinTask.getPool()).distinct()
+			    .collect(Collectors.toList()))
+		    .get(5, TimeUnit.SECONDS);
+	    assertEquals(1, pools.size());
+	    assertTrue(pools.get(0) != ForkJoinPool.commonPool());
+	    assertEquals(2, pools.get(0).getParallelism());
+	} finally {
+	    battles.shutdown();
+	}
+    }
+
+    @Test
+    public void theRetryAfterOfAFullQueueIsRoundedUpToWholeSeconds() {
+	assertEquals(1, new BattleQueueFullException(Duration.ofMillis(200))
+		.getRetryAfterSeconds());
+	assertEquals(2, new BattleQueueFullException(Duration.ofMillis(1500))
+		.getRetryAfterSeconds());
+	assertEquals(3, new BattleQueueFullException(Duration.ofSeconds(3))
+		.getRetryAfterSeconds());
+	assertEquals("Too many battles waiting, retry in 1 seconds",
+		new BattleQueueFullException(Duration.ZERO).getMessage());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void theBattleHistoryQueueIsBoundedByTheSizeOfItsBattles()
+	    throws Exception {
+	TransformerProperties properties = new TransformerProperties();
+	properties.getBattleHistory().setQueueWeight(DataSize.ofKilobytes(4));
+	BattleRepository battleRepository = Mockito
+		.mock(BattleRepository.class);
+	List<Battle> saved = new ArrayList<>();
+	when(battleRepository.saveAll(anyList())).thenAnswer(call -> {
+	    saved.addAll((List<Battle>) call.getArguments()[0]);
+	    return null;
+	});
+	BattleHistory history = new BattleHistory(battleRepository,
+		properties);
+	char[] rounds = new char[4096];
+	Arrays.fill(rounds, Battle.TIE);
+	history.record(new Battle(Instant.now(), "1,2", "T", null,
+		"No survivors", 1));
+	// a single massive battle is more than the queue can hold
+	history.record(new Battle(Instant.now(), "1,2", new String(rounds),
+		null, "No survivors", rounds.length));
+	history.shutdown();
+	assertEquals(1, saved.size());
+	assertEquals("T", saved.get(0).getRounds());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void aBattleThatCantBeWrittenOnlyLosesItself() throws Exception {
+	BattleRepository battleRepository = Mockito
+		.mock(BattleRepository.class);
+	List<Battle> saved = new ArrayList<>();
+	when(battleRepository.saveAll(anyList()))
+		.thenThrow(new IllegalStateException("value too long"));
+	when(battleRepository.save(any(Battle.class))).thenAnswer(call -> {
+	    Battle battle = (Battle) call.getArguments()[0];
+	    if (battle.getWinner().length() > 512) {
+		throw new IllegalStateException("value too long");
+	    }
+	    saved.add(battle);
+	    return battle;
+	});
+	BattleHistory history = new BattleHistory(battleRepository,
+		new TransformerProperties());
+	char[] name = new char[600];
+	Arrays.fill(name, 'X');
+	history.record(new Battle(Instant.now(), "1,2", "A",
+		"Winning team (AUTOBOTS) : Hubcap", "No survivors", 1));
+	history.record(new Battle(Instant.now(), "3,4", "A",
+		"Winning team (AUTOBOTS) : " + new String(name), "No survivors",
+		1));
+	history.record(new Battle(Instant.now(), "5,6", "D",
+		"Winning team (DECEPTICONS) : Soundwave", "No survivors", 1));
+	history.shutdown();
+	assertEquals(2, saved.size());
+	assertEquals("1,2", saved.get(0).getParticipants());
+	assertEquals("5,6", saved.get(1).getParticipants());
+    }
+
+    // starts the calls on threads of their own and returns once every one
+    // of them is waiting, on a latch or on the call it joined
+    private static <T> List<FutureTask<T>> callTogether(int callers,
+	    Callable<T> call) throws InterruptedException {
+	List<FutureTask<T>> calls = new ArrayList<>();
+	List<Thread> threads = new ArrayList<>();
+	for (int caller = 0; caller < callers; caller++) {
+	    FutureTask<T> task = new FutureTask<>(call);
+	    Thread thread = new Thread(task);
+	    thread.start();
+	    calls.add(task);
+	    threads.add(thread);
+	}
+	for (Thread thread : threads) {
+	    while (thread.getState() != Thread.State.WAITING
+		    && thread.getState() != Thread.State.TIMED_WAITING) {
+		Thread.sleep(1);
+	    }
+	}
+	return calls;
+    }
+
+    private static boolean await(CountDownLatch latch) {
+	try {
+	    return latch.await(5, TimeUnit.SECONDS);
+	} catch (InterruptedException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    private List<Transformer> initialRoster() {
+	List<Transformer> transformers = new ArrayList<>();
+	transformers.add(new Transformer(1, "Optimus Prime", 10, 9, 10, 9, 1,
+		9, 9, 10, Transformer.TYPE.AUTOBOT));
+	transformers.add(new Transformer(3, "Soundwave", 8, 9, 2, 6, 7, 5, 6,
+		10, Transformer.TYPE.DECEPTICON));
+	transformers.add(new Transformer(4, "Bluestreak", 6, 6, 7, 9, 5, 2, 9,
+		7, Transformer.TYPE.AUTOBOT));
+	return transformers;
+    }
+
 }